@@ -1,215 +1,569 @@
-package wvalign;
-
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.List;
-
-import wvalign.io.RawSequences;
-import wvalign.utils.MuInt;
-
-
-public class AlignmentDAG {
-
-	ColumnNetwork columnNetwork;
-	
-	String t[][];
-	String[] sequences;
-	String[] seqNames;
-	public String[] getSeqNames() { return seqNames; }
-	StringBuilder[] alignBuilder;
-
-	int totalSamples;
-	
-	List<Double> decoding;
-	List<Double> decodingGi;
-	String[] alignment;
-	
-	
-	MinRiskAnnotator annotator;
-	
-	String outputFile;
-	String scoreFile;
-	public boolean outGi = false;
-	
-	static Comparator<String[]> compStringArr = new Comparator<String[]>() {
-		@Override
-		public int compare(String[] a1, String[] a2) {
-			return a1[0].compareTo(a2[0]);
-		}
-	};
-	
-	public AlignmentDAG(double gValue, boolean optGi, boolean outGi) {
-		columnNetwork = new ColumnNetwork(gValue, optGi, outGi);
-		this.outGi = outGi;
-	}
-		
-	public void setGValue(double gValue) {
-		columnNetwork.gValue = gValue;
-	}
-	
-	public double getGValue() {
-		return columnNetwork.gValue;
-	}
-	
-	public void setAnnotator(MinRiskAnnotator annotator) {
-		this.annotator = annotator;
-	}
-
-	public void addAlignment(String[] align) {
-		if(t == null) {
-			int sizeOfAlignments = align.length;
-			t = new String[sizeOfAlignments][];
-			sequences = null;
-		}
-		totalSamples++;
-		
-		String[] sortedAlign = getAlign(align);
-		columnNetwork.addAlignment(sortedAlign);
-	}
-
-	private String[] getAlign(String[] align) {
-		for(int i = 0; i < t.length; i++) {			
-				t[i] = align[i].split("\t");	
-		}
-		Arrays.sort(t, compStringArr);
-
-		String[] sortedAlign = new String[t.length];
-		for(int i = 0; i < t.length; i++)
-			sortedAlign[i] = t[i][1];
-		return sortedAlign;
-	}
-
-	public void scoreSample(int no, String[] align, FileWriter writer, boolean computePosterior) {
-		String[] sortedAlign = getAlign(align);
-		MuInt len = new MuInt(0);		
-		double score = columnNetwork.scoreAlignment(sortedAlign, len, computePosterior);
-		
-		try {
-			writer.write(no+"\t"+String.format("%.6f", score)+"\t"+len+"\n");
-		} catch (IOException e) {
-		}
-	}
-	
-	public void computeEquivalenceClassFreqs() {
-		columnNetwork.computeEquivalenceClassFreqs();				
-	}
-	void updateSequences() {
-		int sizeOfAlignments = t.length;
-		alignBuilder = new StringBuilder[sizeOfAlignments];
-		for(int i = 0; i < sizeOfAlignments; i++)
-			alignBuilder[i] = new StringBuilder();
-		alignment = new String[sizeOfAlignments];
-
-		sequences = new String[sizeOfAlignments];			
-		StringBuilder b = new StringBuilder();
-		int len = t[0][1].length();
-		for(int i = 0; i < sizeOfAlignments; i++){
-			b.setLength(0);
-			for(int j = 0; j < len; j++){
-				if(t[i][1].charAt(j) != '-'){
-					b.append(t[i][1].charAt(j));
-				}
-			}
-			sequences[i] = b.toString();
-		}
-		if(seqNames == null) {
-			seqNames = new String[sizeOfAlignments];
-			for(int i = 0; i < t.length; i++)
-				seqNames[i] = t[i][0];
-		}
-	}
-	private void updateAll() {
-		int sizeOfAlignments = t.length;
-		if(sequences == null) {
-			updateSequences();
-		}
-
-		Column firstCol;
-		if(annotator != null) {			
-			firstCol = annotator.annotate(columnNetwork, sequences, seqNames);
-		} else {
-			firstCol = columnNetwork.updateViterbi();
-		}
-
-		Column col = firstCol.succ.viterbi;
-		decoding = new ArrayList<Double>();
-		if(outGi)
-			decodingGi = new ArrayList<Double>();
-		while(col.succ != null) {
-			int[] desc = col.key.desc;
-			
-			decoding.add(columnNetwork.getColMarginal(col, false));
-			if(outGi)
-				decodingGi.add(columnNetwork.getColMarginal(col, true));
-			for(int i = 0; i < desc.length; i++) {
-				alignBuilder[i].append((desc[i] & 1) == 0 ? '-' : sequences[i].charAt(desc[i] >> 1));
-			}
-			col = col.succ.viterbi;
-		}
-
-		for(int i = 0; i < sizeOfAlignments; i++) {
-			alignment[i] = t[i][0]+"\t"+alignBuilder[i].toString();
-			alignBuilder[i].setLength(0);
-		}
-
-	}
-	
-	public long getBuildTime() {
-		return columnNetwork.buildTime;
-	}
-	
-	public long getViterbiTime() {
-		return columnNetwork.viterbiTime;
-	}
-	
-	public long getAnnotTime() {
-		return annotator.annotTime;
-	}
-	public void finalise() throws IOException {
-		finalise(true);
-	}
-	public void finalise(boolean plot) throws IOException {
-		updateAll();		
-		FileWriter writer = new FileWriter(outputFile);
-		try{
-			for(int i = 0; i < alignment.length; i++) {
-				String[] row = alignment[i].split("\t");
-				writer.write(">");
-				writer.write(row[0]);				
-				writer.write("\n");
-				writer.write(row[1]);
-				writer.write("\n");
-			}
-			if(!outputFile.equals(scoreFile)) {
-				writer.close();
-				if(scoreFile != null)
-					writer = new FileWriter(scoreFile);
-			} else {
-				writer.write("\n#scores\n\n");
-			}
-			if(scoreFile != null) {
-				if(decoding != null) {
-					if(decodingGi != null) {
-						for(int i = 0; i < decoding.size(); i++)
-							writer.write(decodingGi.get(i)+"\n");
-					} else {
-						for(int i = 0; i < decoding.size(); i++)
-							writer.write(decoding.get(i)+"\n");
-					}
-				}
-			}
-			writer.close();
-			if (plot) {
-				alignshow.Show.main(new String[]{"-t",scoreFile,"-png",outputFile});		
-			}
-			
-		}
-		catch(IOException e){
-		}
-		
-	}
-
+package wvalign;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import wvalign.io.RawSequences;
+import wvalign.utils.IntTupleIndex;
+import wvalign.utils.MuInt;
+
+
+public class AlignmentDAG {
+
+	ColumnNetwork columnNetwork;
+	MappedNetwork mappedNetwork;	// if set, used instead of columnNetwork
+	
+	String t[][];
+	String[] sequences;
+	String[] seqNames;
+	public String[] getSeqNames() { return seqNames; }
+	StringBuilder[] alignBuilder;
+
+	int totalSamples;
+	
+	int[] path;		// column ids of the last summary alignment
+	List<Double> decoding;
+	List<Double> decodingGi;
+	String[] alignment;
+	
+	
+	MinRiskAnnotator annotator;
+	
+	ParallelBuilder builder;
+	private int threads = 1;
+	/** number of alignments drawn in parallel before they are written, see {@link #writeDraws(int, long, boolean, String)} */
+	private static final int DRAW_BATCH = 256;
+	SpillingBuilder spillingBuilder;	// if set, the network is built in external memory
+	private String[] lastAlign;
+	private RepeatDetector repeats = new RepeatDetector();
+	private IntTupleIndex summaryColumns;	// descriptors of the columns of the last interim summary
+	
+	String outputFile;
+	String scoreFile;
+	public boolean outGi = false;
+	
+	static Comparator<String[]> compStringArr = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] a1, String[] a2) {
+			return a1[0].compareTo(a2[0]);
+		}
+	};
+	
+	public AlignmentDAG(double gValue, boolean optGi, boolean outGi) {
+		columnNetwork = new ColumnNetwork(gValue, optGi, outGi);
+		this.outGi = outGi;
+	}
+		
+	public void setGValue(double gValue) {
+		columnNetwork.gValue = gValue;
+	}
+	
+	public double getGValue() {
+		return columnNetwork.gValue;
+	}
+	
+	public void setAnnotator(MinRiskAnnotator annotator) {
+		this.annotator = annotator;
+	}
+
+	/**
+	 * Keeps only the given number of most recent samples in the network, so that
+	 * summaries reflect the latest part of the chain.
+	 * 
+	 * @see ColumnNetwork#setWindow(int)
+	 */
+	public void setWindow(int size) {
+		columnNetwork.setWindow(size);
+	}
+	
+	/**
+	 * Bases the summary alignment and its column scores on the path marginals of the
+	 * columns instead of their sample frequencies.
+	 * 
+	 * @see ColumnNetwork#pathMarginals()
+	 */
+	public void setPathMarginals(boolean usePathMarginals) {
+		columnNetwork.usePathMarginals = usePathMarginals;
+	}
+	
+	/**
+	 * Sets the number of threads used to build the network and to compute the
+	 * summary alignment. With more than one thread, alignments are only guaranteed
+	 * to be in the network after {@link #finishBuild()} has been called.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+		builder = threads > 1 ? new ParallelBuilder(columnNetwork, threads) : null;
+		columnNetwork.parallelViterbi = threads > 1 ? new ParallelViterbi(threads) : null;
+	}
+	
+	/**
+	 * Builds the network in external memory, spilling columns to run files in the
+	 * given directory when the table of columns reaches a quarter of the heap.
+	 * The network is then written to a snapshot by {@link SpillingBuilder#writeSnapshot(AlignmentDAG, String)}.
+	 */
+	public void setSpillDirectory(File dir) throws IOException {
+		spillingBuilder = new SpillingBuilder(dir, Runtime.getRuntime().maxMemory()/4);
+	}
+	
+	public void addAlignment(String[] align) {
+		if(t == null) {
+			int sizeOfAlignments = align.length;
+			t = new String[sizeOfAlignments][];
+			sequences = null;
+		}
+		totalSamples++;
+		
+		if(spillingBuilder != null) {
+			spillingBuilder.addAlignment(getAlign(align));
+			return;
+		}
+		if(builder != null) {
+			builder.add(align);
+			lastAlign = align;
+			return;
+		}
+		if(repeats.isRepeat(align)) {
+			columnNetwork.repeatLast();
+			return;
+		}
+		String[] sortedAlign = getAlign(align);
+		columnNetwork.addAlignment(sortedAlign);
+	}
+	
+	/**
+	 * Waits until all alignments given to {@link #addAlignment(String[])} are added
+	 * to the network.
+	 */
+	public void finishBuild() {
+		if(builder != null) {
+			builder.finish();
+			builder = null;
+			if(lastAlign != null)
+				getAlign(lastAlign);
+		}
+	}
+
+	private String[] getAlign(String[] align) {
+		return sortAlign(align, t);
+	}
+
+	/**
+	 * Sorts the rows of an alignment by sequence name.
+	 * 
+	 * @param align rows of the alignment as name and sequence separated by a tab
+	 * @param t work array of the same length as <code>align</code>, holds the split rows on return
+	 * @return sequences in the order of their names
+	 */
+	static String[] sortAlign(String[] align, String[][] t) {
+		for(int i = 0; i < t.length; i++) {			
+				t[i] = align[i].split("\t");	
+		}
+		Arrays.sort(t, compStringArr);
+
+		String[] sortedAlign = new String[t.length];
+		for(int i = 0; i < t.length; i++)
+			sortedAlign[i] = t[i][1];
+		return sortedAlign;
+	}
+
+	public void scoreSample(int no, String[] align, FileWriter writer, boolean computePosterior) {
+		String[] sortedAlign = getAlign(align);
+		MuInt len = new MuInt(0);		
+		double score = mappedNetwork != null ? mappedNetwork.scoreAlignment(sortedAlign, len, computePosterior) :
+			columnNetwork.scoreAlignment(sortedAlign, len, computePosterior);
+		writeScore(no, score, len.value, writer);
+	}
+	
+	/**
+	 * Scores the samples the network was built from, in the order they were added,
+	 * using the column paths kept while building (see {@link ColumnNetwork#paths}).
+	 */
+	public void scoreStoredSamples(FileWriter writer, boolean computePosterior) {
+		if(columnNetwork.paths == null)
+			throw new Error("Column paths of the samples are not kept or were dropped by pruning");
+		PathStore.Reader reader = columnNetwork.paths.reader();
+		double score = 0;
+		for(int no = 0; no < columnNetwork.paths.size(); no++) {
+			int len = reader.next();
+			if(!reader.repeated)
+				score = columnNetwork.scorePath(reader.path, len, computePosterior);
+			writeScore(no, score, len, writer);
+		}
+	}
+	
+	private static void writeScore(int no, double score, int len, FileWriter writer) {
+		try {
+			writer.write(no+"\t"+String.format("%.6f", score)+"\t"+len+"\n");
+		} catch (IOException e) {
+		}
+	}
+	
+	/**
+	 * Writes the bootstrap support of each column of the last summary alignment,
+	 * one value per line as in the score file. The column paths of the samples must
+	 * have been kept while building, see {@link Bootstrap}.
+	 */
+	public void writeBootstrap(int replicates, String file) throws IOException {
+		double[] support = new Bootstrap(columnNetwork, replicates, threads).support(path);
+		FileWriter writer = new FileWriter(file);
+		try {
+			for(double value : support)
+				writer.write(value+"\n");
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Writes the <code>k</code> best alignments of the network by MinRisk score, the
+	 * first one being the summary alignment. Each alignment is written in FASTA
+	 * format after a line holding its rank and score, alignments are separated by an
+	 * empty line. Fewer alignments are written if the network has fewer paths.
+	 */
+	public void writeKBest(int k, String file) throws IOException {
+		FrozenNetwork net = columnNetwork.freeze();
+		KBestPaths kBest = new KBestPaths(net, columnNetwork.columnScores(net), columnNetwork.pool());
+		FileWriter writer = new FileWriter(file);
+		try {
+			for(int no = 0; no < k; no++) {
+				double score = kBest.score(no);
+				if(score == Double.NEGATIVE_INFINITY)
+					break;
+				if(no > 0)
+					writer.write("\n");
+				writer.write("#"+(no+1)+"\t"+String.format("%.6f", score)+"\n");
+				String[] rows = alignmentRows(kBest.path(no));
+				for(int i = 0; i < rows.length; i++)
+					writer.write(">"+t[i][0]+"\n"+rows[i]+"\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Writes alignments drawn from the empirical path distribution of the network,
+	 * see {@link PathSampler}. Alignments are written as they are drawn, in batches
+	 * drawn in parallel on the threads set by {@link #setThreads(int)}. Each
+	 * alignment has its own random generator split from one seeded with
+	 * <code>seed</code>, so the alignments only depend on the seed.
+	 *
+	 * @param count number of alignments
+	 * @param fasta if set, alignments are written in FASTA format separated by empty
+	 * lines, otherwise as the samples of a StatAlign log, which can be read back
+	 */
+	public void writeDraws(int count, long seed, final boolean fasta, String file) throws IOException {
+		final PathSampler sampler = new PathSampler(columnNetwork.freeze());
+		SplittableRandom root = new SplittableRandom(seed);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		FileWriter writer = new FileWriter(file);
+		try {
+			List<Future<String>> batch = new ArrayList<Future<String>>();
+			for(int from = 0; from < count; from += DRAW_BATCH) {
+				batch.clear();
+				for(int no = from; no < Math.min(from+DRAW_BATCH, count); no++) {
+					final int sample = no;
+					final SplittableRandom random = root.split();
+					batch.add(executor.submit(new Callable<String>() {
+						@Override
+						public String call() {
+							String[] rows = alignmentRows(sampler.draw(random));
+							StringBuilder b = new StringBuilder();
+							String prefix = fasta ? "" : "Sample "+sample+"\tAlignment:\t";
+							if(fasta && sample > 0)
+								b.append('\n');
+							for(int i = 0; i < rows.length; i++) {
+								b.append(prefix).append('>').append(t[i][0]).append('\n');
+								b.append(prefix).append(rows[i]).append('\n');
+							}
+							return b.toString();
+						}
+					}));
+				}
+				for(Future<String> result : batch)
+					writer.write(result.get());
+			}
+		} catch (InterruptedException e) {
+			throw new Error("Interrupted while drawing alignments");
+		} catch (ExecutionException e) {
+			throw new Error("Error while drawing alignments", e.getCause());
+		} finally {
+			executor.shutdown();
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Computes the summary alignment for each of the given g values, reusing the
+	 * network, and writes it to the output files extended with <tt>.g</tt> and the
+	 * value, as {@link #finalise()} does. Only the column scores depend on g, so
+	 * the Viterbi algorithm is run for the values in parallel, on the threads set by
+	 * {@link #setThreads(int)}.
+	 * 
+	 * @param names the g values as they appear in the file names
+	 */
+	public void writeSweep(double[] gValues, String[] names) throws IOException {
+		final FrozenNetwork net = columnNetwork.freeze();
+		double g = columnNetwork.gValue;
+		final double[][] colScore = new double[gValues.length][];
+		for(int k = 0; k < gValues.length; k++) {
+			columnNetwork.gValue = gValues[k];
+			colScore[k] = columnNetwork.columnScores(net);
+		}
+		columnNetwork.gValue = g;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<int[]>> paths = new ArrayList<Future<int[]>>();
+		final double[] score = new double[gValues.length];
+		for(int k = 0; k < gValues.length; k++) {
+			final int value = k;
+			paths.add(executor.submit(new Callable<int[]>() {
+				@Override
+				public int[] call() {
+					int[] choice = new int[net.numClasses()];
+					NetworkDP dp = new NetworkDP(net, NetworkDP.MAX_PLUS, 1, NetworkDP.columnScores(colScore[value]));
+					score[value] = dp.backward(null, choice, null)[net.firstClass()];
+					return net.path(choice);
+				}
+			}));
+		}
+		int[] summary = path;
+		try {
+			for(int k = 0; k < gValues.length; k++) {
+				path = paths.get(k).get();
+				System.out.format(Locale.ENGLISH, "g=%s: %d columns, Viterbi score: %.3f\n", names[k], path.length, score[k]);
+				decodePath();
+				String ext = ".g"+names[k];
+				writeSummary(outputFile+ext, scoreFile == null ? null : scoreFile+ext, false);
+			}
+		} catch (InterruptedException e) {
+			throw new Error("Interrupted while sweeping g");
+		} catch (ExecutionException e) {
+			throw new Error("Error while sweeping g", e.getCause());
+		} finally {
+			executor.shutdown();
+			path = summary;
+			decodePath();
+		}
+	}
+	
+	/**
+	 * @return the rows of the alignment made of the given columns of the network
+	 */
+	private String[] alignmentRows(int[] path) {
+		int[] desc = new int[t.length];
+		StringBuilder[] rows = new StringBuilder[t.length];
+		for(int i = 0; i < rows.length; i++)
+			rows[i] = new StringBuilder(path.length);
+		for(int col : path) {
+			columnNetwork.contIndex.copy(col, desc);
+			for(int i = 0; i < desc.length; i++)
+				rows[i].append((desc[i] & 1) == 0 ? '-' : sequences[i].charAt(desc[i] >> 1));
+		}
+		String[] result = new String[rows.length];
+		for(int i = 0; i < rows.length; i++)
+			result[i] = rows[i].toString();
+		return result;
+	}
+	
+	public void computeEquivalenceClassFreqs() {
+		if(mappedNetwork == null)
+			columnNetwork.computeEquivalenceClassFreqs();				
+	}
+	void updateSequences() {
+		int sizeOfAlignments = t.length;
+		alignBuilder = new StringBuilder[sizeOfAlignments];
+		for(int i = 0; i < sizeOfAlignments; i++)
+			alignBuilder[i] = new StringBuilder();
+		alignment = new String[sizeOfAlignments];
+
+		sequences = new String[sizeOfAlignments];			
+		StringBuilder b = new StringBuilder();
+		for(int i = 0; i < sizeOfAlignments; i++){
+			b.setLength(0);
+			// rows are of equal length, except for the sequences read from a snapshot
+			for(int j = 0, len = t[i][1].length(); j < len; j++){
+				if(t[i][1].charAt(j) != '-'){
+					b.append(t[i][1].charAt(j));
+				}
+			}
+			sequences[i] = b.toString();
+		}
+		if(seqNames == null) {
+			seqNames = new String[sizeOfAlignments];
+			for(int i = 0; i < t.length; i++)
+				seqNames[i] = t[i][0];
+		}
+	}
+	private void updateAll() {
+		if(sequences == null) {
+			updateSequences();
+		}
+
+		if(annotator != null) {			
+			path = annotator.annotate(columnNetwork, sequences, seqNames);
+		} else if(mappedNetwork != null) {
+			path = mappedNetwork.updateViterbi(getGValue());
+		} else {
+			path = columnNetwork.updateViterbi();
+		}
+		decodePath();
+	}
+	
+	/**
+	 * Fills the rows and column scores of the summary alignment from {@link #path}.
+	 */
+	private void decodePath() {
+		int sizeOfAlignments = t.length;
+		decoding = new ArrayList<Double>();
+		if(outGi)
+			decodingGi = new ArrayList<Double>();
+		int[] desc = new int[sizeOfAlignments];
+		for(int col : path) {
+			if(mappedNetwork != null) {
+				mappedNetwork.copyDescriptor(col, desc);
+				decoding.add(mappedNetwork.getColMarginal(col));
+			} else {
+				columnNetwork.contIndex.copy(col, desc);
+				decoding.add(columnNetwork.usePathMarginals ? columnNetwork.pathMarginals()[col]
+						: columnNetwork.getColMarginal(col, false));
+			}
+			if(outGi)
+				decodingGi.add(columnNetwork.getColMarginal(col, true));
+			for(int i = 0; i < desc.length; i++) {
+				alignBuilder[i].append((desc[i] & 1) == 0 ? '-' : sequences[i].charAt(desc[i] >> 1));
+			}
+		}
+
+		for(int i = 0; i < sizeOfAlignments; i++) {
+			alignment[i] = t[i][0]+"\t"+alignBuilder[i].toString();
+			alignBuilder[i].setLength(0);
+		}
+
+	}
+	
+	public long getBuildTime() {
+		return columnNetwork.buildTime + (spillingBuilder != null ? spillingBuilder.buildTime : 0);
+	}
+	
+	/**
+	 * @return number of samples that repeated the previous sample and were added
+	 * without building their columns
+	 */
+	public int getRepeatedSamples() {
+		return columnNetwork.repeats;
+	}
+	
+	public long getViterbiTime() {
+		return mappedNetwork != null ? mappedNetwork.viterbiTime : columnNetwork.viterbiTime;
+	}
+	
+	public long getAnnotTime() {
+		return annotator.annotTime;
+	}
+	/**
+	 * Computes a summary alignment from the alignments added so far and writes it to
+	 * the output files extended with the number of samples, the network is kept
+	 * open for further alignments. Reports the number of columns that were not in
+	 * the previous interim summary, so that convergence can be followed.
+	 */
+	public void interim() throws IOException {
+		if(builder != null) {
+			builder.sync();
+			getAlign(lastAlign);
+		}
+		updateAll();
+		String ext = "."+totalSamples;
+		writeSummary(outputFile+ext, scoreFile == null ? null : scoreFile+ext, false);
+		System.out.print("Interim summary after "+totalSamples+" samples: "+path.length+" columns");
+		int newColumns = rememberSummary();
+		if(newColumns != -1)
+			System.out.print(", "+newColumns+" not in the previous summary");
+		System.out.println();
+	}
+	
+	/**
+	 * Keeps the descriptors of the columns of the last summary. Descriptors are used
+	 * instead of column ids, as the ids change when columns are removed from a
+	 * network that keeps a window of samples.
+	 * 
+	 * @return number of columns not contained in the previous summary, -1 if there
+	 * was none
+	 */
+	private int rememberSummary() {
+		IntTupleIndex prev = summaryColumns;
+		ColumnIndex index = columnNetwork.contIndex;
+		summaryColumns = new IntTupleIndex(index.width());
+		int[] desc = new int[index.width()];
+		int newColumns = 0;
+		for(int col : path) {
+			index.copy(col, desc);
+			int hash = index.hashOf(col);
+			if(prev != null && prev.find(desc, hash) == -1)
+				newColumns++;
+			summaryColumns.insert(desc, hash);
+		}
+		return prev == null ? -1 : newColumns;
+	}
+	
+	public void finalise() throws IOException {
+		finalise(true);
+	}
+	public void finalise(boolean plot) throws IOException {
+		updateAll();
+		writeSummary(outputFile, scoreFile, plot);
+	}
+	private void writeSummary(String outputFile, String scoreFile, boolean plot) throws IOException {
+		FileWriter writer = new FileWriter(outputFile);
+		try{
+			for(int i = 0; i < alignment.length; i++) {
+				String[] row = alignment[i].split("\t");
+				writer.write(">");
+				writer.write(row[0]);				
+				writer.write("\n");
+				writer.write(row[1]);
+				writer.write("\n");
+			}
+			if(!outputFile.equals(scoreFile)) {
+				writer.close();
+				if(scoreFile != null)
+					writer = new FileWriter(scoreFile);
+			} else {
+				writer.write("\n#scores\n\n");
+			}
+			if(scoreFile != null) {
+				if(decoding != null) {
+					if(decodingGi != null) {
+						for(int i = 0; i < decoding.size(); i++)
+							writer.write(decodingGi.get(i)+"\n");
+					} else {
+						for(int i = 0; i < decoding.size(); i++)
+							writer.write(decoding.get(i)+"\n");
+					}
+				}
+			}
+			writer.close();
+			if (plot) {
+				alignshow.Show.main(new String[]{"-t",scoreFile,"-png",outputFile});		
+			}
+			
+		}
+		catch(IOException e){
+		}
+		
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package wvalign;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bootstrap support of the columns of a MinRisk alignment.
+ *
+ * Each replicate resamples the alignments of the network with replacement. Instead
+ * of building a network from the resampled alignments, the column counts are
+ * recomputed from the column paths kept in {@link ColumnNetwork#paths}, weighting
+ * each path by the number of times its alignment was drawn, and the Viterbi
+ * algorithm is run on the original network structure with the reweighted column
+ * scores. Columns only seen in alignments that were not drawn stay in the network
+ * with a count of 0. The support of a column is the fraction of replicates whose
+ * MinRisk alignment contains it.
+ *
+ * Replicates are run in parallel, each with its own random generator seeded from
+ * the replicate number, so the result does not depend on the number of threads.
+ */
+class Bootstrap {
+
+	private final ColumnNetwork network;
+	private final int replicates;
+	private final int threads;
+
+	/**
+	 * @param network network with the column paths of its alignments kept, not pruned
+	 * @param replicates number of bootstrap replicates
+	 * @param threads number of replicates computed in parallel
+	 */
+	Bootstrap(ColumnNetwork network, int replicates, int threads) {
+		if(network.pruned)
+			throw new Error("The bootstrap cannot be run on a pruned network");
+		if(network.paths == null || network.paths.size() != network.n)
+			throw new Error("Column paths of the alignments are needed for the bootstrap");
+		this.network = network;
+		this.replicates = replicates;
+		this.threads = threads;
+	}
+
+	/**
+	 * Computes the bootstrap support of the columns of an alignment.
+	 *
+	 * @param path column ids of the alignment, as returned by {@link ColumnNetwork#updateViterbi()}
+	 * @return fraction of the replicates containing each column of <code>path</code>
+	 */
+	double[] support(int[] path) {
+		final FrozenNetwork net = network.freeze();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+		for(int b = 0; b < replicates; b++) {
+			final int replicate = b;
+			results.add(executor.submit(new Callable<int[]>() {
+				@Override
+				public int[] call() {
+					return replicate(net, new Random(replicate+1));
+				}
+			}));
+		}
+		int[] hits = new int[net.numColumns()];
+		try {
+			for(Future<int[]> result : results)
+				for(int c : result.get())
+					hits[c]++;
+		} catch (InterruptedException e) {
+			throw new Error("Interrupted while bootstrapping");
+		} catch (ExecutionException e) {
+			throw new Error("Error while bootstrapping", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		double[] support = new double[path.length];
+		for(int k = 0; k < path.length; k++)
+			support[k] = (double)hits[path[k]]/replicates;
+		return support;
+	}
+
+	/**
+	 * Runs a replicate.
+	 *
+	 * @return columns of the MinRisk alignment of the replicate
+	 */
+	private int[] replicate(FrozenNetwork net, Random random) {
+		int n = net.n, numCols = net.numColumns();
+		int[] weight = new int[n];
+		for(int s = 0; s < n; s++)
+			weight[random.nextInt(n)]++;
+
+		int[] count = new int[numCols];
+		count[net.first] = count[net.last] = n;
+		PathStore.Reader reader = network.paths.reader();
+		for(int s = 0; s < n; s++) {
+			int len = reader.next();
+			if(weight[s] == 0)
+				continue;
+			int[] path = reader.path;
+			for(int k = 0; k < len; k++)
+				count[path[k] < 0 ? ~path[k] : path[k]] += weight[s];
+		}
+
+		double[] colScore = new double[numCols];
+		if(network.optGi) {
+			int[] giCount = new int[network.giCount.length];
+			for(int c = 0; c < numCols; c++)
+				giCount[network.columns.get(c).gi] += count[c];
+			for(int c = 0; c < numCols; c++)
+				colScore[c] = (double)giCount[network.columns.get(c).gi]/n - network.gValue;
+		} else {
+			for(int c = 0; c < numCols; c++)
+				colScore[c] = (double)count[c]/n - network.gValue;
+		}
+
+		int[] choice = new int[net.numClasses()];
+		new NetworkDP(net, NetworkDP.MAX_PLUS, 1, NetworkDP.columnScores(colScore)).backward(null, choice, null);
+		return net.path(choice);
+	}
+
+}
@@ -4,13 +4,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 class ColClass {
+	int id;				// index of the class key in the network's class index
 	List<Column> succList = new ArrayList<Column>();
-	double score;
-	Column viterbi;
-	// annotation
-	List<Column> predList;
-	double[] fwd, bwd;
-	int vitState;
-	int predFreq = 0;
-	int succFreq = 0;
-}
\ No newline at end of file
+
+	ColClass(int _id) {
+		id = _id;
+	}
+}
@@ -0,0 +1,240 @@
+package wvalign;
+
+import java.util.Arrays;
+
+import wvalign.utils.IntTupleIndex;
+
+/**
+ * Index of the column descriptors of a network, each column stored sparsely as its
+ * predecessor class and the rows that have a residue in the column.
+ *
+ * Entry <tt>i</tt> of a descriptor is <tt>2k+1</tt> if the column holds residue
+ * <tt>k</tt> of sequence <tt>i</tt> and <tt>2k</tt> if sequence <tt>i</tt> has a gap
+ * after <tt>k</tt> residues, where <tt>k</tt> is entry <tt>i</tt> of the key of the
+ * predecessor class. Given the class, a column is thus determined by its residue
+ * rows, so memory and comparisons scale with the number of residues in a column
+ * instead of the number of sequences. Full descriptors are restored from the class
+ * keys on request, hash values are those of the full descriptors.
+ *
+ * The class keys themselves stay dense, {@link #width()} ints per class, and a
+ * network has about half as many classes as columns. On logs sampled around the
+ * OXBench alignments of 15 to 122 sequences they take 1.1 to 1.5 times as many ints
+ * as the residue rows of all columns, so the keys rather than the columns dominate
+ * the memory of the index.
+ *
+ * The first dummy column has no predecessor class, it is stored with class -1, whose
+ * key is -1 in every row.
+ */
+class ColumnIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	/** keys of the column classes, indexed by class id */
+	private final IntTupleIndex classKeys;
+	private final int width;
+
+	/** predecessor class of each column */
+	private int[] pred;
+	/** residue rows of column <tt>i</tt> are <tt>rows[start[i]..start[i+1]-1]</tt>, in increasing order */
+	private int[] start;
+	private int[] rows;
+	/** hash value of the descriptor of each column */
+	private int[] hashes;
+	/** slot table, holds <tt>id+1</tt> for occupied slots and 0 for empty ones */
+	private int[] slots;
+
+	/** number of columns in the index */
+	private int size;
+
+	/**
+	 * @param classKeys index of the class keys, column classes are referred to by
+	 * their ids in it
+	 */
+	ColumnIndex(IntTupleIndex classKeys) {
+		this.classKeys = classKeys;
+		width = classKeys.width();
+		pred = new int[MIN_CAPACITY];
+		start = new int[MIN_CAPACITY+1];
+		rows = new int[MIN_CAPACITY*4];
+		hashes = new int[MIN_CAPACITY];
+		slots = new int[MIN_CAPACITY << 1];
+	}
+
+	/**
+	 * Collects the rows of a descriptor that have a residue.
+	 *
+	 * @param dest filled with the rows, must have room for all rows
+	 * @return number of rows with a residue
+	 */
+	static int residueRows(int[] descriptor, int[] dest) {
+		int n = 0;
+		for(int i = 0; i < descriptor.length; i++)
+			if((descriptor[i] & 1) == 1)
+				dest[n++] = i;
+		return n;
+	}
+
+	/**
+	 * @return number of sequences
+	 */
+	int width() {
+		return width;
+	}
+
+	/**
+	 * @return number of columns in the index
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return total number of residue rows stored
+	 */
+	long rowCount() {
+		return start[size];
+	}
+
+	/**
+	 * Looks up a column.
+	 *
+	 * @param predClass id of the predecessor class of the column, -1 for the first dummy column
+	 * @param residueRows rows with a residue in the column, in increasing order
+	 * @param n number of rows with a residue
+	 * @param hash <code>ZobristHash</code> of the descriptor of the column
+	 * @return id of the column or -1 if it is not in the index
+	 */
+	int find(int predClass, int[] residueRows, int n, int hash) {
+		final int[] slots = this.slots;
+		final int mask = slots.length-1;
+		int pos = hash & mask, id;
+		while((id = slots[pos]) != 0) {
+			if(hashes[--id] == hash && pred[id] == predClass && matches(id, residueRows, n))
+				return id;
+			pos = (pos+1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a column, which must not be in the index.
+	 *
+	 * @return id assigned to the column
+	 * @see #find(int, int[], int, int)
+	 */
+	int insert(int predClass, int[] residueRows, int n, int hash) {
+		if(size == hashes.length)
+			grow();
+		if(size<<1 >= slots.length)
+			rehash();
+		final int id = size++;
+		int off = start[id];
+		if(off+n > rows.length)
+			rows = Arrays.copyOf(rows, Math.max(off+n, rows.length + (rows.length >> 1)));
+		System.arraycopy(residueRows, 0, rows, off, n);
+		start[id+1] = off+n;
+		pred[id] = predClass;
+		hashes[id] = hash;
+		place(id);
+		return id;
+	}
+
+	/**
+	 * @return id of the predecessor class of a column, -1 for the first dummy column
+	 */
+	int predClass(int id) {
+		return pred[id];
+	}
+
+	/**
+	 * Restores the descriptor of a column.
+	 *
+	 * @param dest array of length {@link #width()} the descriptor is copied into
+	 */
+	void copy(int id, int[] dest) {
+		if(pred[id] == -1) {
+			Arrays.fill(dest, -2);
+		} else {
+			classKeys.copy(pred[id], dest);
+			for(int i = 0; i < width; i++)
+				dest[i] <<= 1;
+		}
+		for(int k = start[id]; k < start[id+1]; k++)
+			dest[rows[k]]++;
+	}
+
+	/**
+	 * @return new array holding the descriptor of a column
+	 */
+	int[] get(int id) {
+		int[] desc = new int[width];
+		copy(id, desc);
+		return desc;
+	}
+
+	/**
+	 * @return entry <tt>pos</tt> of the descriptor of a column
+	 */
+	int get(int id, int pos) {
+		int key = pred[id] == -1 ? -1 : classKeys.get(pred[id], pos);
+		boolean residue = Arrays.binarySearch(rows, start[id], start[id+1], pos) >= 0;
+		return 2*key + (residue ? 1 : 0);
+	}
+
+	int hashOf(int id) {
+		return hashes[id];
+	}
+
+	/**
+	 * Releases unused capacity. The index can still grow afterwards.
+	 */
+	void trimToSize() {
+		int cap = size < MIN_CAPACITY ? MIN_CAPACITY : size;
+		if(cap < hashes.length) {
+			pred = Arrays.copyOf(pred, cap);
+			start = Arrays.copyOf(start, cap+1);
+			hashes = Arrays.copyOf(hashes, cap);
+		}
+		rows = Arrays.copyOf(rows, Math.max(start[size], 1));
+	}
+
+	private boolean matches(int id, int[] residueRows, int n) {
+		int off = start[id];
+		if(start[id+1]-off != n)
+			return false;
+		final int[] rows = this.rows;
+		for(int k = 0; k < n; k++)
+			if(rows[off+k] != residueRows[k])
+				return false;
+		return true;
+	}
+
+	private void place(int id) {
+		final int[] slots = this.slots;
+		final int mask = slots.length-1;
+		int pos = hashes[id] & mask;
+		while(slots[pos] != 0)
+			pos = (pos+1) & mask;
+		slots[pos] = id+1;
+	}
+
+	/**
+	 * Grows the per column arrays by 50%.
+	 */
+	private void grow() {
+		int cap = hashes.length + (hashes.length >> 1);
+		pred = Arrays.copyOf(pred, cap);
+		start = Arrays.copyOf(start, cap+1);
+		hashes = Arrays.copyOf(hashes, cap);
+	}
+
+	/**
+	 * Doubles the slot table, keeping it at most half full.
+	 */
+	private void rehash() {
+		slots = new int[slots.length << 1];
+		for(int id = 0; id < size; id++)
+			place(id);
+	}
+
+}
@@ -2,22 +2,28 @@ package wvalign;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
 
-import wvalign.Column.ColumnKey;
+import wvalign.utils.CircularArray;
+import wvalign.utils.IntTupleIndex;
+import wvalign.utils.LongIntHashMap;
 import wvalign.utils.MuInt;
 import wvalign.utils.Utils;
+import wvalign.utils.ZobristHash;
 
 
 
 class ColumnNetwork {
-	HashMap<ColumnKey, Column> contMap = new HashMap<ColumnKey, Column>();			// container map	
-	HashMap<ColumnKey, ColClass> succMap = new HashMap<ColumnKey, ColClass>();		// successor map
-	HashMap<ColumnKey, Integer> pairFreqs;		// column pair freqs
+	ColumnIndex contIndex;			// column descriptors, ids index into columns
+	ArrayList<Column> columns = new ArrayList<Column>();
+	IntTupleIndex succIndex;		// successor class keys, ids index into classes
+	ArrayList<ColClass> classes = new ArrayList<ColClass>();
+	LongIntHashMap pairFreqs;		// column pair freqs, see pairKey()
+	PathStore paths;				// column paths of the alignments, null if not kept
 	
-	HashMap<ColumnKey, Integer> giCount;		// gap insensitive count
+	IntTupleIndex giIndex;			// gap insensitive column keys, ids index into giCount
+	int[] giCount;					// gap insensitive count, null if not kept
 
 	boolean twoState; // Whether to use pairFreqs
 	
@@ -28,33 +34,61 @@ class ColumnNetwork {
 
 	double gValue;		// g parameter of the MPG algorithm
 	boolean optGi;		// true if viterbi is based on gap insensitive score 
+	boolean usePathMarginals;	// true if viterbi is based on the path marginals of the columns, see pathMarginals()
 	int n;				// total number of alignments in network
+	int repeats;		// number of alignments added by repeatLast()
+	CircularArray<int[]> window;	// column paths of the alignments in the network, null if all are kept
+	int windowSize;		// number of most recent alignments kept in the network
+	int deadColumns;	// columns whose count dropped to 0 by removeAlignment(), until collected
+	boolean pruned;		// true once prune() removed columns, which changes the column ids
+	double discardedMass;	// share of the path mass through the columns removed by the last prune()
 	
 	long buildTime;		// time spent in building the network (creating columns, hashing etc.)
 	long viterbiTime;	// time spent in Viterbi algorithm
+	ParallelViterbi parallelViterbi;	// runs the Viterbi algorithm on several threads, null for one
+
+	ZobristHash zobrist;		// hash function of column descriptors and class keys
+	private int firstHash;			// hash of firstDescriptor
+	private int[] descBuffer;		// scratch descriptor updated while walking an alignment
+	private int[] prevBuffer;		// scratch predecessor class key
+	private int[] succBuffer;		// scratch successor class key
+	private int[] rowBuffer;		// scratch residue rows of a column
+	private int[] giBuffer;			// scratch gap insensitive key
+	private int[] lastPath;			// columns of the last alignment, ~id after all-gap columns
+	private int lastPathLength;		// -1 if the last alignment is not known
+	private int[] pathBuffer;		// scratch column path of an alignment being scored
+	
+	private FrozenNetwork frozen;	// array representation, discarded when the network changes
+	private double[] pathMarginals;	// path marginals of the columns of frozen, computed on demand
 
 	public ColumnNetwork(double gValue, boolean optGi, boolean outGi) {
 		this.gValue = gValue;
 		this.optGi = optGi;
 		
 		if(outGi || optGi)
-			giCount = new HashMap<Column.ColumnKey, Integer>();
+			giCount = new int[16];
 				
 		twoState = false;
 	}
 
-	int[] concat(int[] A, int[] B) {
-	   int aLen = A.length;
-	   int bLen = B.length;
-	   int[] C= new int[aLen+bLen];
-	   System.arraycopy(A, 0, C, 0, aLen);
-	   System.arraycopy(B, 0, C, aLen, bLen);
-	   return C;
-	}		
+	/**
+	 * Key of a column pair in {@link #pairFreqs}: the ids of the two columns packed
+	 * into a long. A column that follows all-gap columns is paired with the last
+	 * all-gap column, which only depends on the column itself, so -1 is used as the
+	 * first id, whatever column preceded the gap.
+	 * 
+	 * @param pred id of the first column
+	 * @param col id of the second column
+	 * @param gapBetween true if the columns are separated by all-gap columns
+	 */
+	static long pairKey(int pred, int col, boolean gapBetween) {
+		return (long)(gapBetween ? -1 : pred) << 32 | (col & 0xffffffffL);
+	}
+	
 	void activateTwoState(boolean t) {
 		twoState = t;
 		if (twoState) {
-			pairFreqs = new HashMap<ColumnKey, Integer>();
+			pairFreqs = new LongIntHashMap();
 		}		
 	}
 	/**
@@ -64,50 +98,66 @@ class ColumnNetwork {
 	 * @return first (dummy) column of the network
 	 */
 	Column addAlignment(String[] align) {
-		int len = align[0].length(), size = align.length, i, j, d;
+		int len = align[0].length(), size = align.length, i, j, d, nd;
 		ColClass succClass;
 		
 		buildTime -= System.currentTimeMillis();
+		frozen = null;
 		
 		if(n == 0) {
+			initIndices(size);
 			// add first dummy column
 			firstDescriptor = new int[size];
 			Arrays.fill(firstDescriptor, -1);
-			succClass = add(firstDescriptor, null, -1);
+			firstHash = zobrist.hash(firstDescriptor);
+			int nrows = ColumnIndex.residueRows(firstDescriptor, rowBuffer);
+			succClass = add(firstDescriptor, firstHash, rowBuffer, nrows, null, -1).succ;
 		} else {
 			succClass = firstCol.succ;
 			firstCol.count++;
 		}
 
-		int[] descriptor = firstDescriptor;
-		boolean allGap;
+		// descriptor is updated in place, its hash is only updated for the rows that
+		// advance, i.e. that are non-gap in the previous or in the current column 
+		int[] descriptor = descBuffer;
+		System.arraycopy(firstDescriptor, 0, descriptor, 0, size);
+		int hash = firstHash;
+		boolean gapBetween = false;
+		int predId = firstCol.id;
+		if(lastPath == null || lastPath.length < len)
+			lastPath = new int[len];
+		int pathLength = 0;
+		int[] rows = rowBuffer;
+		int nrows;
 		for(j = 0; j < len; j++) {
-			int[] nextDescriptor =  new int[size];
-			allGap = true;
+			nrows = 0;
 			for(i = 0; i < size; i++){
-				d = descriptor[i];
-				d += d & 1;
+				nd = d = descriptor[i];
+				nd += d & 1;
 				if(align[i].charAt(j) != '-') {
-					d++;
-					allGap = false;
+					nd++;
+					rows[nrows++] = i;
 				}
-				nextDescriptor[i] = d;
-			}
-			if (twoState) {
-				int[] pairDescriptor = concat(descriptor,nextDescriptor); 
-				ColumnKey pair = new ColumnKey(pairDescriptor);
-				if (pairFreqs.containsKey(pair)) {
-					pairFreqs.put(pair,pairFreqs.get(pair) + 1); 
-				}
-				else {
-					pairFreqs.put(pair,1);
+				if(nd != d) {
+					hash = zobrist.update(hash, i, d, nd);
+					descriptor[i] = nd;
 				}
-				//pair.print();	
 			}
-			descriptor = nextDescriptor;
-			if(!allGap)
-				succClass = add(descriptor, succClass, 0);
+			if(nrows == 0) {
+				gapBetween = true;
+				continue;
+			}
+			Column col = add(descriptor, hash, rows, nrows, succClass, 0);
+			succClass = col.succ;
+			if (twoState)
+				pairFreqs.add(pairKey(predId, col.id, gapBetween), 1);
+			lastPath[pathLength++] = gapBetween ? ~col.id : col.id;
+			predId = col.id;
+			gapBetween = false;
 		}
+		lastPathLength = pathLength;
+		if(paths != null)
+			paths.add(lastPath, pathLength);
 
 		if(n == 0) {
 			// add last dummy column
@@ -115,154 +165,303 @@ class ColumnNetwork {
 			for(i = 0; i < size; i++) {
 				descriptor[i] += (descriptor[i] & 1) + 1;
 			}
-			add(descriptor, succClass, 1);
+			nrows = ColumnIndex.residueRows(descriptor, rows);
+			add(descriptor, zobrist.hash(descriptor), rows, nrows, succClass, 1);
 		} else {
 			lastCol.count++;
 		}
 		
 		n++;
+		if(window != null)
+			slideWindow();
 		buildTime += System.currentTimeMillis();
 		
 		return firstCol;
 	}
+	
+	/**
+	 * Adds the last alignment added by {@link #addAlignment(String[])} once more,
+	 * incrementing the counts along its columns without building them again.
+	 */
+	void repeatLast() {
+		if(n == 0 || lastPathLength == -1)
+			throw new Error("No alignment to repeat");
+		buildTime -= System.currentTimeMillis();
+		frozen = null;
+		
+		firstCol.count++;
+		int predId = firstCol.id;
+		for(int k = 0; k < lastPathLength; k++) {
+			int id = lastPath[k];
+			boolean gapBetween = id < 0;
+			if(gapBetween)
+				id = ~id;
+			Column col = columns.get(id);
+			col.count++;
+			if(giCount != null)
+				giCount[col.gi]++;
+			if(twoState)
+				pairFreqs.add(pairKey(predId, id, gapBetween), 1);
+			predId = id;
+		}
+		lastCol.count++;
+		if(paths != null)
+			paths.addRepeat();
+		
+		n++;
+		repeats++;
+		if(window != null)
+			slideWindow();
+		buildTime += System.currentTimeMillis();
+	}
+	
+	/**
+	 * Keeps only the given number of most recent alignments in the network, older
+	 * ones are removed by {@link #removeAlignment(int[], int)} as new ones are added.
+	 * Must be called before the first alignment is added.
+	 */
+	void setWindow(int size) {
+		windowSize = size;
+		window = new CircularArray<int[]>(size+1);
+	}
+	
+	/**
+	 * Appends the path of the alignment just added to the window, removing the
+	 * oldest alignment if the window is full.
+	 */
+	private void slideWindow() {
+		window.push(Arrays.copyOf(lastPath, lastPathLength));
+		if(window.length() > windowSize) {
+			int[] path = window.shift();
+			removeAlignment(path, path.length);
+		}
+	}
+	
+	/**
+	 * Removes an alignment from the network, decrementing the counts along its column
+	 * path. Columns no longer seen in any alignment are removed together with the
+	 * classes left empty once they make up half of the network, or when the network
+	 * is frozen, which may change the ids of the remaining columns.
+	 * 
+	 * @param path column ids of the alignment, complemented after all-gap columns, as
+	 * kept by {@link #addAlignment(String[])}
+	 * @param len number of columns
+	 */
+	void removeAlignment(int[] path, int len) {
+		frozen = null;
+		firstCol.count--;
+		int predId = firstCol.id;
+		for(int k = 0; k < len; k++) {
+			int id = path[k];
+			boolean gapBetween = id < 0;
+			if(gapBetween)
+				id = ~id;
+			Column col = columns.get(id);
+			if(--col.count == 0)
+				deadColumns++;
+			if(giCount != null)
+				giCount[col.gi]--;
+			if(twoState)
+				pairFreqs.add(pairKey(predId, id, gapBetween), -1);
+			predId = id;
+		}
+		lastCol.count--;
+		n--;
+		if(2*deadColumns > columns.size())
+			collectGarbage();
+	}
+	
+	/**
+	 * Removes the columns left unseen by {@link #removeAlignment(int[], int)}, and
+	 * the classes no longer used.
+	 */
+	void collectGarbage() {
+		if(deadColumns == 0)
+			return;
+		deadColumns = 0;
+		prune(1);
+	}
+	
 	public void computeEquivalenceClassFreqs() {
 		System.out.println("Computing equivalence class frequencies.");
-		for(ColClass cl : succMap.values()) {
-			cl.predList = new ArrayList<Column>();
-			for(Column col : cl.succList) {
-				col.pred = cl;
-				cl.succFreq += col.count;	
-			}						
-		}
-		for(Column col : contMap.values()) {
-			if(col.succ != null)
-				col.succ.predList.add(col);
-		}				
+		freeze();
+	}
+	
+	/**
+	 * Returns the array based representation of the network, creating it if the
+	 * network has changed since the last call.
+	 */
+	FrozenNetwork freeze() {
+		if(frozen == null) {
+			collectGarbage();
+			frozen = new FrozenNetwork(this);
+			pathMarginals = null;
+		}
+		return frozen;
 	}
 	double scoreAlignment(String[] align, MuInt rlen) {
 		return(scoreAlignment(align, rlen, false));
 	}
 	double scoreAlignment(String[] align, MuInt rlen, boolean computeLogPosterior) {
-		int len = align[0].length(), size = align.length, i, j, d;
+		int len = align[0].length(), size = align.length, i, j, d, nd;
 
-		rlen.value = 0;
-		double score = 0;
-		int[] descriptor = new int[size];
-		Arrays.fill(descriptor, -1);
-		boolean allGap;
-		ColumnKey pair = new ColumnKey(descriptor); // Dummy for initialisation
-		Column pred = firstCol; 
+		if(pathBuffer == null || pathBuffer.length < len)
+			pathBuffer = new int[len];
+		int[] path = pathBuffer;
+		int pathLength = 0;
+		int[] descriptor = descBuffer;
+		System.arraycopy(firstDescriptor, 0, descriptor, 0, size);
+		int hash = firstHash;
+		boolean gapBetween = false;
+		int[] rows = rowBuffer;
+		ColClass predClass = firstCol.succ;
 		for(j = 0; j < len; j++) {
-			int[] nextDescriptor =  new int[size];
-			allGap = true;
+			int nrows = 0;
 			for(i = 0; i < size; i++){
-				d = descriptor[i];
-				d += d & 1;
+				nd = d = descriptor[i];
+				nd += d & 1;
 				if(align[i].charAt(j) != '-') {
-					d++;
-					allGap = false;
+					nd++;
+					rows[nrows++] = i;
+				}
+				if(nd != d) {
+					hash = zobrist.update(hash, i, d, nd);
+					descriptor[i] = nd;
 				}
-				nextDescriptor[i] = d;
-			}
-			if (twoState) {
-				int[] pairDescriptor = concat(descriptor,nextDescriptor); 
-				pair = new ColumnKey(pairDescriptor);				
 			}
-			descriptor = nextDescriptor;
-			if(!allGap) {
-				rlen.value++;
-				ColumnKey key = new ColumnKey(descriptor);
-				Column col = contMap.get(key);
-				if(col == null)
+			if(nrows == 0)
+				gapBetween = true;
+			else {
+				int id = predClass == null ? -1 : contIndex.find(predClass.id, rows, nrows, hash);
+				if(id == -1)
 					throw new Error("could not find column");
-				if (computeLogPosterior) {					
-//					if (col.pred.succFreq == 0) {
-//						System.out.println(j+" "+col.count+" "+col.pred.predFreq);
-//					}					
-					if (twoState) {
-						//pair.print();												
-						//if (pairFreqs.containsKey(pair)) // Not necessary, because these are observed alignments 
-							score += Math.log((double)pairFreqs.get(pair)/(double)pred.count);
-					}
-					else {
-						score += Math.log((double)col.count/(double)col.pred.succFreq);
-					}
-				}				
+				path[pathLength++] = gapBetween ? ~id : id;
+				predClass = columns.get(id).succ;
+				gapBetween = false;
+			}
+		}
+
+		rlen.value = pathLength;
+		return scorePath(path, pathLength, computeLogPosterior);
+	}
+	
+	/**
+	 * Scores an alignment given by its column path, e.g. as stored in {@link #paths}.
+	 * 
+	 * @param path column ids of the alignment, complemented after all-gap columns
+	 * @param len number of columns
+	 * @param computeLogPosterior if true, the log posterior of the alignment is
+	 * returned instead of the sum of the column marginals
+	 */
+	double scorePath(int[] path, int len, boolean computeLogPosterior) {
+		double score = 0;
+		Column pred = firstCol; 
+		FrozenNetwork net = computeLogPosterior && !twoState ? freeze() : null;
+		for(int k = 0; k < len; k++) {
+			int id = path[k];
+			boolean gapBetween = id < 0;
+			if(gapBetween)
+				id = ~id;
+			Column col = columns.get(id);
+			if (computeLogPosterior) {					
+//				if (col.pred.succFreq == 0) {
+//					System.out.println(j+" "+col.count+" "+col.pred.predFreq);
+//				}					
+				if (twoState) {
+					//pair.print();												
+					//if (pairFreqs.containsKey(pair)) // Not necessary, because these are observed alignments 
+						score += Math.log((double)pairFreqs.get(pairKey(pred.id, id, gapBetween))/(double)pred.count);
+				}
 				else {
-					score += getColMarginal(col, optGi);	//(double)col.count/n;
+					score += Math.log((double)col.count/(double)net.succFreq[net.colPred[id]]);
 				}
-				if (twoState) pred = col;
+			}				
+			else {
+				score += getColMarginal(id, optGi);	//(double)col.count/n;
 			}
+			if (twoState) pred = col;
 		}
 
 		return score;
 	}
 	
 	double logNPaths() {		
-		HashMap<ColumnKey,Double> mem = new HashMap<ColumnKey,Double>(); 
-		return(logNPathsTo(lastCol,mem));
-	}
-	double logNPathsTo(Column c, HashMap<ColumnKey,Double> mem) {
-				
-		double N = Double.NEGATIVE_INFINITY;			
-		if (mem.containsKey(c.key)) {
-			return mem.get(c.key);
-		}
-		if (c.pred == firstCol.succ) {
-			//c.key.print();
-			N = 0;			
-		}
-		else if (c == lastCol) {
-			for (Column p : c.pred.predList) {
-				N = Utils.logAdd(N,logNPathsTo(p,mem));
-			}			
-		}
-		else {						
-			//System.out.println(c.pred.predList.size());			
-			for (Column p : c.pred.predList) {				
-				if (!twoState) {
-					N = Utils.logAdd(N,logNPathsTo(p,mem));
+		FrozenNetwork net = freeze();
+		if(!twoState) {
+			// number of paths into each class
+			NetworkDP dp = new NetworkDP(net, NetworkDP.LOG_SUM, 1, new NetworkDP.Weights() {
+				public double extend(double value, int col, int from, int to) {
+					return value;
 				}
-				else {
-					int[] pairDescriptor = concat(p.key.desc,c.key.desc); 					
-					ColumnKey pair = new ColumnKey(pairDescriptor);
-					if (pairFreqs.containsKey(pair)) {						
-						N = Utils.logAdd(N,logNPathsTo(p,mem));
-					}					
-				}
-			}		
+			});
+			double[] N = dp.forward(null, pool());
+			return N[net.colPred[net.last]];
 		}
-		mem.put(c.key, N);		
-		return N;
+		// with pair frequencies a path only continues through observed column pairs
+		final int first = net.first, last = net.last;
+		NetworkDP dp = new NetworkDP(net, NetworkDP.LOG_SUM, NetworkDP.COLUMN_STATES, new NetworkDP.Weights() {
+			public double extend(double value, int col, int from, int to) {
+				if(from == first || col == last || pairFreqs.containsKey(pairKey(from, col, false)))
+					return value;
+				return Utils.log0;
+			}
+		});
+		double[] N = dp.forward(null, pool());
+		return N[last];
 	}
 	
+	/**
+	 * Creates the column and class indices for alignments of the given size.
+	 */
+	void initIndices(int size) {
+		succIndex = new IntTupleIndex(size);
+		contIndex = new ColumnIndex(succIndex);
+		zobrist = new ZobristHash(size);
+		descBuffer = new int[size];
+		rowBuffer = new int[size];
+		prevBuffer = new int[size];
+		succBuffer = new int[size];
+		if(giCount != null) {
+			giIndex = new IntTupleIndex(size);
+			giBuffer = new int[size];
+		}
+	}
+
 	/**
 	 * Adds a new alignment column into the network. If already in the network, column count is incremented.
-	 * @param descriptor Alignment column represented by an array of signed integers
+	 * @param descriptor Alignment column represented by an array of signed integers, not stored by the network
+	 * @param hash hash of the descriptor, must equal <code>zobrist.hash(descriptor)</code>
+	 * @param rows rows of the descriptor that hold a residue, in increasing order
+	 * @param nrows number of rows that hold a residue
+	 * @param predClass class the column belongs to, <code>null</code> for the first dummy
 	 * @param type type identifier for column: -1 for first dummy, 0 for regular col, 1 for last dummy
+	 * @return the column in the network
 	 */
-	ColClass add(int[] descriptor, ColClass predClass, int type) {
+	Column add(int[] descriptor, int hash, int[] rows, int nrows, ColClass predClass, int type) {
 		Column column;
 
-		ColumnKey key = new ColumnKey(descriptor);
-		
-		if(giCount != null) {
-			ColumnKey spKey = key.giKey();
-			Integer c;
-			if((c=giCount.get(spKey)) == null)
-				c = 1;
-			else
-				c++;
-			giCount.put(spKey, c);
-		}
-		
-		if((column=contMap.get(key)) != null) {
+		// a hash collision is resolved by the index comparing the class and residue rows
+		int pred = predClass == null ? -1 : predClass.id;
+		int id = contIndex.find(pred, rows, nrows, hash);
+		if(id != -1) {
+			column = columns.get(id);
 			++column.count;
-			return column.succ;
+		} else {
+			column = createColumn(descriptor, hash, rows, nrows, predClass, type);
 		}
-
-		column = new Column(key);
-		contMap.put(key, column);
+		if(giCount != null)
+			giCount[column.gi]++;
+		return column;
+	}
+	
+	/**
+	 * Creates a column that is not yet in the network, together with its successor class
+	 * if that is new too.
+	 */
+	private Column createColumn(int[] descriptor, int hash, int[] rows, int nrows, ColClass predClass, int type) {
+		frozen = null;
+		Column column = new Column(contIndex.insert(predClass == null ? -1 : predClass.id, rows, nrows, hash));
+		columns.add(column);
 		numberOfNodes++;
 		
 		if(type == -1)
@@ -275,49 +474,550 @@ class ColumnNetwork {
 			lastCol = column;
 			succClass = null;
 		} else {
-			ColumnKey succKey = key.succ();
-			if((succClass = succMap.get(succKey)) == null)
-				succMap.put(succKey, succClass = new ColClass());
+			int[] succKey = succBuffer;
+			for(int i = 0; i < succKey.length; i++)
+				succKey[i] = (descriptor[i]+1) >> 1;
+			hash = zobrist.hash(succKey);
+			int id;
+			if((id = succIndex.find(succKey, hash)) != -1) {
+				succClass = classes.get(id);
+			} else {
+				succClass = new ColClass(succIndex.insert(succKey, hash));
+				classes.add(succClass);
+			}
 		}
 		column.succ = succClass;
+		
+		if(giCount != null)
+			column.gi = giClass(descriptor);
 
-		return succClass;
+		return column;
 	}
 	
-	double getColMarginal(Column col, boolean gi) {
-		return !gi? (double)col.count/n :
-						(double)giCount.get(col.key.giKey())/n;
+	/**
+	 * Finds the gap insensitive class of a column descriptor, i.e. the columns that
+	 * only differ in the positions of the gaps, creating the class with a zero count
+	 * if it is new.
+	 * 
+	 * @return id of the class, index into <code>giCount</code>
+	 */
+	private int giClass(int[] descriptor) {
+		int[] giKey = giBuffer;
+		for(int i = 0; i < giKey.length; i++)
+			giKey[i] = (descriptor[i] & 1) == 1 ? descriptor[i] : 0;
+		int hash = zobrist.hash(giKey);
+		int id = giIndex.find(giKey, hash);
+		if(id == -1) {
+			id = giIndex.insert(giKey, hash);
+			if(id == giCount.length)
+				giCount = Arrays.copyOf(giCount, 2*id);
+		}
+		return id;
 	}
-
-	Column updateViterbi() {
-		viterbiTime -= System.currentTimeMillis();
+	
+	/**
+	 * Creates an empty network with the same settings, e.g. to build part of the
+	 * samples in a separate thread.
+	 */
+	ColumnNetwork newShard() {
+		ColumnNetwork shard = new ColumnNetwork(gValue, optGi, giCount != null);
+		shard.activateTwoState(twoState);
+		if(paths != null)
+			shard.paths = new PathStore();
+		return shard;
+	}
+	
+	/**
+	 * Merges a network built from subsequent samples into this one. Columns of
+	 * <code>other</code> are visited in order of creation, so the result (including
+	 * column ids and the order of successor lists) is identical to adding the samples
+	 * of the two networks one after the other to a single network.
+	 * 
+	 * @param other network built from the samples following those in this network
+	 */
+	void merge(ColumnNetwork other) {
+		if(other.n == 0)
+			return;
+		if(n == 0) {
+			initIndices(other.firstDescriptor.length);
+			firstDescriptor = other.firstDescriptor.clone();
+			firstHash = other.firstHash;
+		} else if(firstDescriptor.length != other.firstDescriptor.length) {
+			throw new Error("Networks of different numbers of sequences cannot be merged");
+		}
+		
+		buildTime -= System.currentTimeMillis();
+		frozen = null;
 		
-		for(ColClass succClass : succMap.values()) {
-			succClass.score = Double.NEGATIVE_INFINITY;
-			succClass.viterbi = null;
+		int[] descriptor = descBuffer;
+		int[] ids = new int[other.columns.size()];		// ids of the merged columns in this network
+		for(Column oc : other.columns) {
+			other.contIndex.copy(oc.id, descriptor);
+			int hash = other.contIndex.hashOf(oc.id);		// hash function only depends on the size
+			int type = oc == other.firstCol ? -1 : oc == other.lastCol ? 1 : 0;
+			ids[oc.id] = takeOver(descriptor, hash, oc.count, type);
 		}
-		double score = updateViterbi(firstCol.succ);
 		
-		viterbiTime += System.currentTimeMillis();
-		System.out.format(Locale.ENGLISH, "Viterbi score: %.3f\n", score);
+		if(twoState) {
+			for(long key : other.pairFreqs.keys()) {
+				int pred = (int)(key >> 32), col = (int)key;
+				long newKey = pairKey(pred == -1 ? -1 : ids[pred], ids[col], pred == -1);
+				pairFreqs.add(newKey, other.pairFreqs.get(key));
+			}
+		}
+		n += other.n;
+		repeats += other.repeats;
+		if(paths != null)
+			paths.addAll(other.paths, ids);
+		lastPathLength = -1;
 		
-		return firstCol;
+		buildTime += System.currentTimeMillis();
 	}
-
-	double updateViterbi(ColClass colClass) {
-		if(colClass == null)
+	
+	/**
+	 * Adds a column with the given count, taken over from a network built from other
+	 * samples. Columns must be taken over in order of creation, so that the
+	 * predecessor class of a new column is already in this network.
+	 * 
+	 * @return id of the column in this network
+	 */
+	private int takeOver(int[] descriptor, int hash, int count, int type) {
+		ColClass predClass = null;
+		int predId = -1;
+		if(type != -1) {
+			int[] predKey = prevBuffer;
+			for(int i = 0; i < predKey.length; i++)
+				predKey[i] = descriptor[i] >> 1;
+			predId = succIndex.find(predKey, zobrist.hash(predKey));
+			if(predId == -1)
+				throw new Error("Predecessor class of column not found");
+			predClass = classes.get(predId);
+		}
+		int[] rows = rowBuffer;
+		int nrows = ColumnIndex.residueRows(descriptor, rows);
+		int id = contIndex.find(predId, rows, nrows, hash);
+		if(id != -1) {
+			Column column = columns.get(id);
+			column.count += count;
+			// dummy columns are only counted once in the gap insensitive counts, when they are created
+			if(giCount != null && type == 0)
+				giCount[column.gi] += count;
+			return id;
+		}
+		Column column = createColumn(descriptor, hash, rows, nrows, predClass, type);
+		column.count = count;
+		if(giCount != null)
+			giCount[column.gi] += type == 0 ? count : 1;
+		return column.id;
+	}
+	
+	/**
+	 * Fills an empty network with stored columns, e.g. read from a snapshot. The
+	 * gap insensitive counts are computed from the column counts, pair frequencies
+	 * are not restored.
+	 * 
+	 * @param size number of sequences
+	 * @param descriptors column descriptors in order of creation, <code>size</code> ints each
+	 * @param counts column counts
+	 * @param first id of the first dummy column
+	 * @param last id of the last dummy column
+	 * @param samples number of alignments the columns were built from
+	 */
+	void restore(int size, int[] descriptors, int[] counts, int first, int last, int samples) {
+		buildTime -= System.currentTimeMillis();
+		frozen = null;
+		
+		initIndices(size);
+		firstDescriptor = Arrays.copyOfRange(descriptors, first*size, (first+1)*size);
+		firstHash = zobrist.hash(firstDescriptor);
+		int[] descriptor = descBuffer;
+		for(int c = 0; c < counts.length; c++) {
+			System.arraycopy(descriptors, c*size, descriptor, 0, size);
+			takeOver(descriptor, zobrist.hash(descriptor), counts[c], c == first ? -1 : c == last ? 1 : 0);
+		}
+		n = samples;
+		lastPathLength = -1;
+		
+		buildTime += System.currentTimeMillis();
+	}
+	
+	/**
+	 * Removes the columns seen fewer than <code>minCount</code> times, together with
+	 * the columns and classes that are no longer on any path from the first to the
+	 * last dummy column. If no such path is left, the path whose least frequent
+	 * column is the most frequent is kept, so the network stays connected.
+	 * Column marginals of the remaining columns are not changed, gap insensitive
+	 * counts are computed from them as when the network is read from a snapshot,
+	 * and pair frequencies involving removed columns are dropped. The column paths
+	 * in {@link #paths} run through removed columns, as every column is on the path
+	 * of some alignment, so they are dropped as well.
+	 * The share of the path mass lost is left in {@link #discardedMass}, see
+	 * {@link #discardedMass(FrozenNetwork, boolean[])}.
+	 * 
+	 * @return number of occurrences of the removed columns
+	 */
+	long prune(int minCount) {
+		FrozenNetwork net = freeze();
+		int numCols = net.numColumns();
+		boolean[] keep = new boolean[numCols];
+		for(int c = 0; c < numCols; c++)
+			keep[c] = c == net.first || c == net.last || net.count[c] >= minCount;
+		boolean[] live = liveColumns(net, keep);
+		if(!live[net.last]) {
+			for(int c : widestPath(net))
+				keep[c] = true;
+			live = liveColumns(net, keep);
+		}
+		
+		// columns are taken over in increasing order of their descriptor sums, so that
+		// the predecessor class of a column is created before the column
+		int size = contIndex.width(), kept = 0;
+		long removed = 0;
+		long[] sorted = new long[numCols];
+		int[] desc = descBuffer;
+		for(int c = 0; c < numCols; c++) {
+			if(!live[c]) {
+				removed += net.count[c];
+				continue;
+			}
+			contIndex.copy(c, desc);
+			long sum = 0;
+			for(int i = 0; i < size; i++)
+				sum += desc[i];
+			sorted[kept++] = sum << 32 | c;
+		}
+		discardedMass = 0;
+		if(kept == numCols)
 			return 0;
-		if(colClass.score != Double.NEGATIVE_INFINITY)
-			return colClass.score;
-		List<Column> list = colClass.succList;
-		for(Column col : list) {
-			double sc = getColMarginal(col, optGi) - gValue + updateViterbi(col.succ);
-			if(sc > colClass.score) {
-				colClass.score = sc;
-				colClass.viterbi = col;
+		if(removed > 0)
+			discardedMass = discardedMass(net, live);
+		Arrays.sort(sorted, 0, kept);
+		int[] ids = new int[numCols];
+		int[] descriptors = new int[kept*size], counts = new int[kept];
+		Arrays.fill(ids, -1);
+		for(int k = 0; k < kept; k++) {
+			int c = (int)sorted[k];
+			ids[c] = k;
+			contIndex.copy(c, desc);
+			System.arraycopy(desc, 0, descriptors, k*size, size);
+			counts[k] = net.count[c];
+		}
+		
+		if(giCount != null)
+			giCount = new int[16];
+		columns = new ArrayList<Column>();
+		classes = new ArrayList<ColClass>();
+		numberOfNodes = 0;
+		int lastLength = lastPathLength;
+		restore(size, descriptors, counts, ids[net.first], ids[net.last], n);
+		if(lastLength != -1 && remapPath(lastPath, lastLength, ids))
+			lastPathLength = lastLength;
+		if(window != null) {
+			for(int k = window.length(); k > 0; k--) {
+				int[] path = window.shift();
+				if(!remapPath(path, path.length, ids))
+					throw new Error("Pruning removed a column of an alignment in the window");
+				window.push(path);
+			}
+		}
+		paths = null;
+		pruned = true;
+		if(twoState) {
+			LongIntHashMap oldPairs = pairFreqs;
+			pairFreqs = new LongIntHashMap();
+			for(long key : oldPairs.keys()) {
+				int pred = (int)(key >> 32), col = (int)key;
+				if(ids[col] != -1 && (pred == -1 || ids[pred] != -1))
+					pairFreqs.put(pairKey(pred == -1 ? -1 : ids[pred], ids[col], pred == -1), oldPairs.get(key));
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Computes the share of the path mass that runs through removed columns. If the
+	 * column paths of all alignments are kept in {@link #paths}, this is the share of
+	 * the alignments with a removed column. Otherwise it is the probability of a
+	 * removed column on a path drawn from the empirical path distribution, in which
+	 * each column follows its predecessor class with probability
+	 * <tt>count/succFreq</tt> (see {@link PathSampler}).
+	 * 
+	 * @param live columns that are kept
+	 */
+	private double discardedMass(final FrozenNetwork net, final boolean[] live) {
+		if(paths != null && paths.size() == n) {
+			PathStore.Reader reader = paths.reader();
+			int lost = 0;
+			boolean hit = false;
+			for(int s = 0; s < n; s++) {
+				int len = reader.next();
+				if(!reader.repeated) {
+					hit = false;
+					for(int k = 0; k < len && !hit; k++)
+						hit = !live[reader.path[k] < 0 ? ~reader.path[k] : reader.path[k]];
+				}
+				if(hit)
+					lost++;
+			}
+			return (double)lost/n;
+		}
+		NetworkDP dp = new NetworkDP(net, NetworkDP.SUM_PRODUCT, 1, new NetworkDP.Weights() {
+			@Override
+			public double extend(double value, int col, int from, int to) {
+				if(!live[col])
+					return 0;
+				int pred = net.colPred[col];
+				return pred == -1 ? value : value*net.count[col]/net.succFreq[pred];
+			}
+		});
+		double[] mass = dp.forward(null, pool());
+		int cl = net.colPred[net.last];
+		return 1-(live[net.last] ? mass[cl]*net.count[net.last]/net.succFreq[cl] : 0);
+	}
+	
+	/**
+	 * Finds the columns to be kept that are on a path of kept columns from the first
+	 * to the last dummy column.
+	 */
+	private static boolean[] liveColumns(FrozenNetwork net, boolean[] keep) {
+		int numCols = net.numColumns(), numClasses = net.numClasses();
+		int[] order = net.order, succStart = net.succStart, succCols = net.succCols, colSucc = net.colSucc;
+		// classes reachable from the first dummy column
+		boolean[] reached = new boolean[numClasses];
+		reached[net.firstClass()] = true;
+		for(int cl : order) {
+			if(!reached[cl])
+				continue;
+			for(int e = succStart[cl]; e < succStart[cl+1]; e++) {
+				int c = succCols[e];
+				if(keep[c] && colSucc[c] != -1)
+					reached[colSucc[c]] = true;
 			}
 		}
-		return colClass.score;
+		// columns of reachable classes leading to the last dummy column
+		boolean[] live = new boolean[numCols];
+		boolean[] leads = new boolean[numClasses];
+		live[net.first] = true;
+		for(int k = order.length-1; k >= 0; k--) {
+			int cl = order[k];
+			if(!reached[cl])
+				continue;
+			for(int e = succStart[cl]; e < succStart[cl+1]; e++) {
+				int c = succCols[e];
+				if(keep[c] && (colSucc[c] == -1 || leads[colSucc[c]])) {
+					live[c] = true;
+					leads[cl] = true;
+				}
+			}
+		}
+		if(!leads[net.firstClass()])
+			Arrays.fill(live, false);
+		return live;
+	}
+	
+	/**
+	 * @return ids of the columns of the path maximising the count of its least
+	 * frequent column, including the dummy columns
+	 */
+	private static int[] widestPath(FrozenNetwork net) {
+		int numClasses = net.numClasses();
+		int[] order = net.order, succStart = net.succStart, succCols = net.succCols, colSucc = net.colSucc;
+		int[] width = new int[numClasses], choice = new int[numClasses];
+		for(int k = order.length-1; k >= 0; k--) {
+			int cl = order[k];
+			width[cl] = -1;
+			for(int e = succStart[cl]; e < succStart[cl+1]; e++) {
+				int c = succCols[e];
+				int w = c == net.last ? Integer.MAX_VALUE : net.count[c];
+				if(colSucc[c] != -1)
+					w = Math.min(w, width[colSucc[c]]);
+				if(w > width[cl]) {
+					width[cl] = w;
+					choice[cl] = c;
+				}
+			}
+		}
+		int[] path = net.path(choice);
+		int[] ret = Arrays.copyOf(path, path.length+2);
+		ret[path.length] = net.first;
+		ret[path.length+1] = net.last;
+		return ret;
+	}
+	
+	/**
+	 * Translates the column ids of a path after columns have been removed.
+	 * 
+	 * @param ids new id of each old column id, -1 for removed columns
+	 * @return <code>false</code> if a column of the path has been removed
+	 */
+	private static boolean remapPath(int[] path, int len, int[] ids) {
+		for(int k = 0; k < len; k++) {
+			int id = path[k] < 0 ? ~path[k] : path[k];
+			if(ids[id] == -1)
+				return false;
+			path[k] = path[k] < 0 ? ~ids[id] : ids[id];
+		}
+		return true;
+	}
+	
+	/**
+	 * Chooses the smallest minimum count for {@link #prune(int)} with which the
+	 * columns are estimated to take at most the given number of bytes.
+	 */
+	int autoMinCount(long budget) {
+		FrozenNetwork net = freeze();
+		// residue rows, class and hash in the index, column object and its references
+		long bytesPerColumn = 4L*contIndex.rowCount()/Math.max(1, contIndex.size()) + 64;
+		int[] counts = net.count.clone();
+		Arrays.sort(counts);
+		long maxCols = Math.max(2, budget/bytesPerColumn);
+		if(counts.length <= maxCols)
+			return 1;
+		// at most maxCols columns are seen more often than the (maxCols+1)th most frequent one
+		return counts[(int)(counts.length-maxCols-1)] + 1;
+	}
+	
+	/**
+	 * Releases spare capacity of the indices once building is finished.
+	 */
+	void trimToSize() {
+		if(contIndex == null)
+			return;
+		contIndex.trimToSize();
+		succIndex.trimToSize();
+		columns.trimToSize();
+		classes.trimToSize();
+		if(paths != null)
+			paths.trimToSize();
+		if(giCount != null) {
+			giIndex.trimToSize();
+			giCount = Arrays.copyOf(giCount, giIndex.size());
+		}
+	}
+	
+	/**
+	 * Returns a copy of the descriptor of a column.
+	 */
+	int[] getDescriptor(Column col) {
+		return contIndex.get(col.id);
+	}
+	
+	double getColMarginal(int col, boolean gi) {
+		Column column = columns.get(col);
+		return !gi? (double)column.count/n : (double)giCount[column.gi]/n;
+	}
+
+	/**
+	 * Computes the probability of each column under the path distribution of the
+	 * network, in which a column follows its predecessor class with probability
+	 * <tt>count/succFreq</tt>. Unlike the sample frequency of
+	 * {@link #getColMarginal(int, boolean)}, it sums over all paths through the
+	 * column, also those combining columns of different samples.
+	 * 
+	 * The transition probabilities out of every class sum to one, so the backward
+	 * probability of every class is 1, and the marginal of a column is the forward
+	 * probability of its predecessor class times its transition probability. A
+	 * single forward pass thus gives all marginals, in time linear in the number
+	 * of columns.
+	 * 
+	 * As long as the network holds all columns of its samples, the counts form a
+	 * flow through the classes and the marginals equal the sample frequencies up to
+	 * rounding. They differ once columns have been removed by {@link #prune(int)},
+	 * as the path distribution is renormalised over the remaining columns.
+	 * 
+	 * @return marginal of each column, indexed by column id
+	 */
+	double[] pathMarginals() {
+		final FrozenNetwork net = freeze();
+		if(pathMarginals != null)
+			return pathMarginals;
+		NetworkDP.Weights transition = new NetworkDP.Weights() {
+			public double extend(double value, int c, int from, int to) {
+				int p = net.colPred[c];
+				return p == -1 ? value : value*net.count[c]/net.succFreq[p];
+			}
+		};
+		double[] fwd = new NetworkDP(net, NetworkDP.SUM_PRODUCT, 1, transition).forward(null, pool());
+		int numCols = net.numColumns();
+		double[] marginals = new double[numCols];
+		for(int c = 0; c < numCols; c++) {
+			int p = net.colPred[c];
+			marginals[c] = transition.extend(p == -1 ? 1 : fwd[p], c, 0, 0);
+		}
+		return pathMarginals = marginals;
+	}
+
+	/**
+	 * Returns the ids of the column classes in a topological order, i.e. every class
+	 * precedes the successor classes of its columns. Classes are sorted by the sum of
+	 * their keys, which strictly increases along the edges of the network, as every
+	 * regular column advances at least one sequence. 
+	 */
+	int[] topologicalOrder() {
+		int size = classes.size(), width = succIndex.width();
+		long[] sorted = new long[size];
+		for(int id = 0; id < size; id++) {
+			long sum = 0;
+			for(int i = 0; i < width; i++)
+				sum += succIndex.get(id, i);
+			sorted[id] = sum << 32 | id;
+		}
+		Arrays.sort(sorted);
+		int[] order = new int[size];
+		for(int k = 0; k < size; k++)
+			order[k] = (int)sorted[k];
+		return order;
+	}
+
+	/**
+	 * @return pool running the passes over the network on several threads, null for one
+	 */
+	ForkJoinPool pool() {
+		return parallelViterbi == null ? null : parallelViterbi.pool;
+	}
+
+	/**
+	 * @return MinRisk score of each column of the network, the marginal of the column
+	 * minus the g value, the path marginal if {@link #usePathMarginals} is set
+	 */
+	double[] columnScores(FrozenNetwork net) {
+		int numCols = net.numColumns();
+		double[] colScore = new double[numCols];
+		if(usePathMarginals) {
+			double[] marginals = pathMarginals();
+			for(int c = 0; c < numCols; c++)
+				colScore[c] = marginals[c] - gValue;
+		} else {
+			for(int c = 0; c < numCols; c++)
+				colScore[c] = getColMarginal(c, optGi) - gValue;
+		}
+		return colScore;
+	}
+
+	/**
+	 * Computes the MinRisk alignment.
+	 * 
+	 * @return ids of the columns of the MinRisk alignment
+	 */
+	int[] updateViterbi() {
+		viterbiTime -= System.currentTimeMillis();
+		
+		FrozenNetwork net = freeze();
+		double[] colScore = columnScores(net);
+		
+		NetworkDP dp = new NetworkDP(net, NetworkDP.MAX_PLUS, 1, NetworkDP.columnScores(colScore));
+		int[] viterbi = new int[net.numClasses()];
+		double[] classScore;
+		if(parallelViterbi != null)
+			classScore = parallelViterbi.run(dp, viterbi);
+		else
+			classScore = dp.backward(null, viterbi, null);
+		double score = classScore[net.firstClass()];
+		
+		viterbiTime += System.currentTimeMillis();
+		System.out.format(Locale.ENGLISH, "Viterbi score: %.3f\n", score);
+		
+		return net.path(viterbi);
 	}
 
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 import wvalign.io.FastaReader;
 import wvalign.io.RawSequences;
@@ -16,11 +17,29 @@ import wvalign.io.SampleReader;
 
 public class DagInterface {
 	
+	/** value of {@link #setMinCount(int)} choosing the minimum count from the heap size */
+	public static final int AUTO_MIN_COUNT = -1;
+	
 	private AlignmentDAG dag;
 	
 	private int maxNoSamples;
 	private int sampleRate = 1;
 	private int firstSample;
+	private int interimRate;
+	private int minCount;
+	private String snapshotFile;
+	private boolean mapSnapshot;
+	private File spillDirectory;
+	private int bootstrapReplicates;
+	private String bootstrapFile;
+	private int kBest;
+	private String kBestFile;
+	private int draws;
+	private long drawSeed;
+	private boolean drawFasta;
+	private String drawFile;
+	private double[] sweepValues;
+	private String[] sweepNames;
 
 	private SampleReader sReader;
 	private ArrayDeque<String> fastaList;
@@ -52,6 +71,14 @@ public class DagInterface {
 		this.firstSample = firstSample;
 	}
 	
+	/**
+	 * When computing the MinRisk alignment, an interim summary is written after
+	 * every <code>interimRate</code> samples (0: never).
+	 */
+	public void setInterimRate(int interimRate) {
+		this.interimRate = interimRate;
+	}
+	
 	//>test
 	//	public void setClassSizeFiles(String fwdFile, String bwdFile) throws IOException {
 	//		dag.fwdClassFile = new FileWriter(fwdFile);
@@ -62,13 +89,114 @@ public class DagInterface {
 	public void setTimeStats(boolean timeStats) {
 		this.timeStats = timeStats;
 	}
+	
+	/**
+	 * Once the network is built, columns seen fewer than <code>minCount</code> times
+	 * are pruned (0: no pruning). With {@link #AUTO_MIN_COUNT}, the minimum count is
+	 * chosen so that the network is estimated to take at most half of the heap.
+	 */
+	public void setMinCount(int minCount) {
+		this.minCount = minCount;
+	}
+	
+	/**
+	 * Sets the file the network is saved to once it has been built (<code>null</code>:
+	 * not saved).
+	 */
+	public void setSnapshotFile(String snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+	
+	/**
+	 * Builds the network in external memory, using the given directory for the run
+	 * files (see {@link SpillingBuilder}). The network is written to the snapshot file
+	 * if one is set, otherwise to a temporary file, and used through a memory mapping.
+	 */
+	public void setSpillDirectory(File dir) throws IOException {
+		dag.setSpillDirectory(dir);
+		spillDirectory = dir;
+	}
+	
+	/**
+	 * If set, a network snapshot given as input is memory mapped and used directly,
+	 * instead of being read into memory.
+	 */
+	public void setMapSnapshot(boolean mapSnapshot) {
+		this.mapSnapshot = mapSnapshot;
+	}
+	
+	/**
+	 * Writes the <code>k</code> best alignments of the DAG by MinRisk score to
+	 * <code>file</code>, see {@link AlignmentDAG#writeKBest(int, String)}.
+	 */
+	public void setKBest(int k, String file) {
+		kBest = k;
+		kBestFile = file;
+	}
+	
+	/**
+	 * Writes <code>count</code> alignments drawn from the DAG to <code>file</code>,
+	 * see {@link AlignmentDAG#writeDraws(int, long, boolean, String)}.
+	 */
+	public void setDraws(int count, long seed, boolean fasta, String file) {
+		draws = count;
+		drawSeed = seed;
+		drawFasta = fasta;
+		drawFile = file;
+	}
+	
+	/**
+	 * Computes the bootstrap support of the columns of the summary alignment from
+	 * the given number of replicates, written to <code>file</code>. The column paths
+	 * of the samples are kept while building the network for this.
+	 */
+	public void setBootstrap(int replicates, String file) {
+		bootstrapReplicates = replicates;
+		bootstrapFile = file;
+	}
+	
+	/**
+	 * Keeps only the given number of most recent samples in the network, e.g. to
+	 * follow the summary of a chain through interim summaries.
+	 */
+	public void setWindow(int size) {
+		dag.setWindow(size);
+	}
+	
+	/**
+	 * Also writes the summary alignment for each of the given g values, see
+	 * {@link AlignmentDAG#writeSweep(double[], String[])}.
+	 * 
+	 * @param names the values as they appear in the file names
+	 */
+	public void setSweep(double[] gValues, String[] names) {
+		sweepValues = gValues;
+		sweepNames = names;
+	}
+	
+	/**
+	 * Uses the probability of the columns under the path distribution of the DAG
+	 * instead of their sample frequency for the summary and its column scores.
+	 */
+	public void setPathMarginals(boolean usePathMarginals) {
+		dag.setPathMarginals(usePathMarginals);
+	}
+	
+	/**
+	 * Sets the number of threads used to build the network and compute the summary.
+	 */
+	public void setThreads(int threads) {
+		dag.setThreads(threads);
+	}
 	void activateTwoState(boolean t) {
 		dag.columnNetwork.activateTwoState(t);
 	}
 	void computeEquivalenceClassFreqs() {
-		dag.columnNetwork.computeEquivalenceClassFreqs();
+		dag.computeEquivalenceClassFreqs();
 	}
 	double logNPaths() {
+		if(dag.mappedNetwork != null)
+			return dag.mappedNetwork.logNPaths();
 		return dag.columnNetwork.logNPaths();
 	}
 	private void initDag(List<String> inFiles, String outputFile, String scoreFile, 
@@ -108,6 +236,35 @@ public class DagInterface {
 			throws FileNotFoundException, IOException {
 		networkOperation(logFile,outputFile,scoreFile,true,false,computePosterior);
 	}
+	
+	/**
+	 * Builds the network and scores the samples it is built from, reading them only
+	 * once: the column path of each sample is kept while building and scored
+	 * afterwards. If the first input file is a network snapshot, the samples to score
+	 * follow the snapshots and are read separately.
+	 * 
+	 * @param postFile file the scores are written to
+	 */
+	public void setupNetworkAndScore(List<String> inFiles, String outputFile, String scoreFile,
+			String postFile, boolean computePosterior) 
+			throws FileNotFoundException, IOException {
+		if(NetworkSnapshot.isSnapshot(inFiles.get(0))) {
+			setupNetwork(inFiles, outputFile, scoreFile);
+			scoreSamples(inFiles, postFile, scoreFile, computePosterior);
+			return;
+		}
+		dag.columnNetwork.paths = new PathStore();
+		setupNetwork(inFiles, outputFile, scoreFile);
+		if (computePosterior) {
+			dag.computeEquivalenceClassFreqs();
+		}
+		FileWriter writer = new FileWriter(postFile);
+		try {
+			dag.scoreStoredSamples(writer, computePosterior);
+		} finally {
+			writer.close();
+		}
+	}
 	public void setupNetwork(String logFile, String outputFile, String scoreFile) 
 			throws FileNotFoundException, IOException {
 		networkOperation(logFile,outputFile,scoreFile,false,false,false);
@@ -130,12 +287,38 @@ public class DagInterface {
 		networkOperation(Arrays.asList(logFile), outputFile, scoreFile, scoreSamples,computeMinRisk,computePosterior);
 	}
 	
+	/**
+	 * Builds the network from the samples of the input files and/or scores the samples.
+	 * If the first input file is a network snapshot, the network is read from it
+	 * instead, merged with the snapshots that directly follow it, and samples are
+	 * only read from the rest of the files for scoring.
+	 */
 	public void networkOperation(List<String> inFiles, String outputFile, String scoreFile, 
 			boolean scoreSamples, boolean computeMinRisk, boolean computePosterior) 
 					throws FileNotFoundException, IOException {
 		long totalTime = -System.currentTimeMillis();
 		long ioTime = totalTime;
-		initDag(inFiles, outputFile, scoreFile, scoreSamples);
+		boolean readSamples = true;
+		int snapshots = leadingSnapshots(inFiles);
+		if(snapshots > 0) {
+			if(scoreSamples) {
+				// network has already been read, samples to score follow the snapshots
+				inFiles = inFiles.subList(snapshots, inFiles.size());
+				if(inFiles.isEmpty())
+					throw new Error("No samples to score, they must follow the network snapshot.");
+			} else {
+				readSnapshot(inFiles.get(0), outputFile, scoreFile);
+				for(String file : inFiles.subList(1, snapshots)) {
+					System.out.println("Merging network from "+file);
+					NetworkSnapshot.merge(dag, file);
+				}
+				readSamples = false;
+			}
+		}
+		if(readSamples)
+			initDag(inFiles, outputFile, scoreFile, scoreSamples);
+		if(readSamples && !scoreSamples && bootstrapReplicates > 0)
+			dag.columnNetwork.paths = new PathStore();
 
 		FileWriter writer = null;
 		if(scoreSamples) {
@@ -150,7 +333,7 @@ public class DagInterface {
 		int no = 0;
 		int sampleIndex = 0;
 		
-		while(lastSample != null && (maxNoSamples == 0 || no < maxNoSamples)) {
+		while(readSamples && lastSample != null && (maxNoSamples == 0 || no < maxNoSamples)) {
 			//			System.out.println("Sample no. "+(no+1));
 			if (sampleIndex >= firstSample) {
 				String[] align = getAlign();
@@ -159,8 +342,10 @@ public class DagInterface {
 					dag.scoreSample(no, align, writer,computePosterior);
 				}
 				else dag.addAlignment(align);
-				ioTime -= System.currentTimeMillis();
 				no++;
+				if(computeMinRisk && interimRate > 0 && no % interimRate == 0)
+					dag.interim();
+				ioTime -= System.currentTimeMillis();
 			}
 			for(int i = 0; i < sampleRate; i++) {
 				getNextSample();
@@ -168,14 +353,48 @@ public class DagInterface {
 			}	
 		}
 		ioTime += System.currentTimeMillis();
+		if(!scoreSamples && dag.spillingBuilder != null) {
+			mergeSpilledNetwork();
+		} else if(!scoreSamples) {
+			dag.finishBuild();
+			if(minCount != 0)
+				pruneNetwork();
+			dag.columnNetwork.trimToSize();
+			if(snapshotFile != null) {
+				System.out.println("Saving network to "+snapshotFile);
+				NetworkSnapshot.write(dag, snapshotFile);
+			}
+		}
 		if(computeMinRisk) {
 			dag.finalise();
+			if(bootstrapReplicates > 0) {
+				System.out.println("Bootstrapping the summary alignment with "+bootstrapReplicates+" replicates");
+				dag.writeBootstrap(bootstrapReplicates, bootstrapFile);
+			}
+			if(kBest > 0) {
+				System.out.println("Writing the "+kBest+" best alignments to "+kBestFile);
+				dag.writeKBest(kBest, kBestFile);
+			}
+			if(draws > 0) {
+				System.out.println("Drawing "+draws+" alignments from the DAG into "+drawFile);
+				dag.writeDraws(draws, drawSeed, drawFasta, drawFile);
+			}
+			if(sweepValues != null) {
+				System.out.println("Sweeping "+sweepValues.length+" g values");
+				dag.writeSweep(sweepValues, sweepNames);
+			}
 
 			totalTime += System.currentTimeMillis();
 			if(timeStats) {
 				System.out.println("Time spent in:");
 				System.out.println(" * Input and output  : "+ioTime+" ms");
 				System.out.println(" * Building network  : "+dag.getBuildTime()+" ms");
+				if(dag.spillingBuilder != null)
+					System.out.println("   ("+dag.spillingBuilder.spilledColumns+" columns spilled to disk in "+
+							dag.spillingBuilder.spills+" runs)");
+				else if(readSamples && dag.totalSamples > 0)
+					System.out.format(Locale.ENGLISH, "   (%d of %d samples repeated the previous one, %.1f%%)\n",
+							dag.getRepeatedSamples(), dag.totalSamples, 100.0*dag.getRepeatedSamples()/dag.totalSamples);
 				if(dag.annotator == null)
 					System.out.println(" * Viterbi algorithm : "+dag.getViterbiTime()+" ms");
 				else
@@ -188,6 +407,76 @@ public class DagInterface {
 
 	}
 
+	private void pruneNetwork() {
+		ColumnNetwork network = dag.columnNetwork;
+		int k = minCount;
+		if(k == AUTO_MIN_COUNT) {
+			k = network.autoMinCount(Runtime.getRuntime().maxMemory()/2);
+			System.out.println("Minimum column count chosen: "+k);
+		}
+		int numCols = network.columns.size();
+		long occurrences = -2L*network.n;		// dummy columns are not counted
+		for(Column col : network.columns)
+			occurrences += col.count;
+		long removed = network.prune(k);
+		System.out.format(Locale.ENGLISH, "Pruned %d of %d columns seen fewer than %d times, %.2f%% of the path mass discarded (%.2f%% of column occurrences)\n",
+				numCols-network.columns.size(), numCols, k, 100.0*network.discardedMass,
+				occurrences == 0 ? 0.0 : 100.0*removed/occurrences);
+	}
+
+	/**
+	 * Writes the network built in external memory as a snapshot, to the file set by
+	 * {@link #setSnapshotFile(String)} or a temporary one in the spill directory, and
+	 * maps it for the computations that follow.
+	 */
+	private void mergeSpilledNetwork() throws IOException {
+		File file;
+		if(snapshotFile != null) {
+			file = new File(snapshotFile);
+		} else {
+			file = File.createTempFile("network", ".dag", spillDirectory);
+			file.deleteOnExit();
+		}
+		System.out.println("Merging spilled columns into "+file.getPath());
+		dag.spillingBuilder.writeSnapshot(dag, file.getPath());
+		mapNetwork(file.getPath());
+	}
+
+	private void mapNetwork(String file) throws IOException {
+		System.out.println("Mapping network from "+file);
+		MappedNetwork network = new MappedNetwork(file);
+		dag.mappedNetwork = network;
+		dag.t = new String[network.size][];
+		for(int i = 0; i < network.size; i++)
+			dag.t[i] = new String[] { network.names[i], network.sequences[i] };
+		dag.sequences = null;
+		dag.totalSamples = network.n;
+	}
+
+	/**
+	 * @return number of network snapshots at the start of the list of input files
+	 */
+	static int leadingSnapshots(List<String> inFiles) {
+		int k = 0;
+		while(k < inFiles.size() && NetworkSnapshot.isSnapshot(inFiles.get(k)))
+			k++;
+		return k;
+	}
+
+	private void readSnapshot(String file, String outputFile, String scoreFile) throws IOException {
+		if(mapSnapshot) {
+			mapNetwork(file);
+		} else {
+			System.out.println("Reading network from "+file);
+			NetworkSnapshot.read(dag, file);
+		}
+		System.out.println("Using g value "+dag.getGValue());
+		System.out.println("Number of sequences = "+dag.t.length);
+
+		dag.outputFile = outputFile;
+		dag.scoreFile = scoreFile;
+	}
+
 	private void getNextSample() {
 		try {
 			if(sReader != null) {
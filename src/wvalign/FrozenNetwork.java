@@ -0,0 +1,340 @@
+package wvalign;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only, array based snapshot of a {@link ColumnNetwork}, in compressed sparse
+ * row (CSR) layout.
+ *
+ * Columns and column classes are referred to by their ids in the network. The
+ * successor lists of the classes (columns that can follow a class) and the
+ * predecessor lists (columns whose successor is the class) are stored as slices of
+ * flat edge arrays, together with a topological order of the classes, so passes over
+ * the DAG are simple loops over int arrays.
+ *
+ * Created by {@link ColumnNetwork#freeze()}, must not be used once further
+ * alignments are added to the network.
+ */
+class FrozenNetwork implements NetworkDP.Adjacency {
+
+	/** number of alignments in the network */
+	final int n;
+	/** id of the first dummy column */
+	final int first;
+	/** id of the last dummy column */
+	final int last;
+
+	/** number of occurrences of each column */
+	final int[] count;
+	/** successor class of each column, -1 for the last dummy column */
+	final int[] colSucc;
+	/** class whose successor list contains the column, -1 for the first dummy column */
+	final int[] colPred;
+
+	/** successor list of class <tt>k</tt> is <tt>succCols[succStart[k]..succStart[k+1]-1]</tt> */
+	final int[] succStart, succCols;
+	/** predecessor list of class <tt>k</tt> is <tt>predCols[predStart[k]..predStart[k+1]-1]</tt> */
+	final int[] predStart, predCols;
+	/** sum of the counts of the successor columns of each class */
+	final int[] succFreq;
+
+	/** classes in topological order */
+	final int[] order;
+
+	/** classes of level <tt>h</tt> are <tt>levelClasses[levelStart[h]..levelStart[h+1]-1]</tt>, see {@link #levels()} */
+	private int[] levelStart, levelClasses;
+	/** same for the levels of {@link #forwardLevels()} */
+	private int[] fwdLevelStart, fwdLevelClasses;
+	/** segment <tt>s</tt> is <tt>order[segStart[s]..segStart[s+1]-1]</tt>, closed by column <tt>anchors[s]</tt>, see {@link #segments()} */
+	private int[] segStart, anchors;
+
+	FrozenNetwork(ColumnNetwork network) {
+		List<Column> columns = network.columns;
+		List<ColClass> classes = network.classes;
+		int numCols = columns.size(), numClasses = classes.size();
+
+		n = network.n;
+		first = network.firstCol.id;
+		last = network.lastCol.id;
+
+		count = new int[numCols];
+		colSucc = new int[numCols];
+		colPred = new int[numCols];
+		Arrays.fill(colPred, -1);
+		for(int c = 0; c < numCols; c++) {
+			Column col = columns.get(c);
+			count[c] = col.count;
+			colSucc[c] = col.succ == null ? -1 : col.succ.id;
+		}
+
+		succStart = new int[numClasses+1];
+		succFreq = new int[numClasses];
+		for(int k = 0; k < numClasses; k++)
+			succStart[k+1] = succStart[k] + classes.get(k).succList.size();
+		succCols = new int[succStart[numClasses]];
+		for(int k = 0, e = 0; k < numClasses; k++) {
+			for(Column col : classes.get(k).succList) {
+				succCols[e++] = col.id;
+				colPred[col.id] = k;
+				succFreq[k] += col.count;
+			}
+		}
+
+		predStart = new int[numClasses+1];
+		predCols = predLists(colSucc, predStart);
+
+		order = network.topologicalOrder();
+	}
+
+	/**
+	 * Creates the representation from its arrays, e.g. for a network that is not
+	 * held as a {@link ColumnNetwork}. The predecessor lists are derived from
+	 * <code>colSucc</code>.
+	 */
+	FrozenNetwork(int n, int first, int last, int[] count, int[] colSucc, int[] colPred,
+			int[] succStart, int[] succCols, int[] succFreq, int[] order) {
+		this.n = n;
+		this.first = first;
+		this.last = last;
+		this.count = count;
+		this.colSucc = colSucc;
+		this.colPred = colPred;
+		this.succStart = succStart;
+		this.succCols = succCols;
+		this.succFreq = succFreq;
+		this.order = order;
+		predStart = new int[succFreq.length+1];
+		predCols = predLists(colSucc, predStart);
+	}
+
+	/**
+	 * Groups the columns by their successor class.
+	 *
+	 * @param predStart filled with the offsets of the lists, one more than the number of classes
+	 * @return the concatenated lists
+	 */
+	private static int[] predLists(int[] colSucc, int[] predStart) {
+		int numClasses = predStart.length-1;
+		for(int c = 0; c < colSucc.length; c++)
+			if(colSucc[c] != -1)
+				predStart[colSucc[c]+1]++;
+		for(int k = 0; k < numClasses; k++)
+			predStart[k+1] += predStart[k];
+		int[] predCols = new int[predStart[numClasses]];
+		int[] fill = Arrays.copyOf(predStart, numClasses);
+		for(int c = 0; c < colSucc.length; c++)
+			if(colSucc[c] != -1)
+				predCols[fill[colSucc[c]]++] = c;
+		return predCols;
+	}
+
+	/**
+	 * Partitions the classes into levels by the length of the longest path to the
+	 * last dummy column, counted in columns. Level 0 holds the class of the last
+	 * dummy column. The successor classes of the columns of a class are all on lower
+	 * levels, so the classes of a level can be processed independently once the
+	 * lower levels are done.
+	 *
+	 * @return offsets of the levels in {@link #levelClasses()}, one more than the number of levels
+	 */
+	int[] levels() {
+		if(levelStart != null)
+			return levelStart;
+		int[] height = new int[numClasses()];
+		for(int k = order.length-1; k >= 0; k--) {
+			int cl = order[k], h = 0;
+			for(int e = succStart[cl], end = succStart[cl+1]; e < end; e++) {
+				int succ = colSucc[succCols[e]];
+				if(succ != -1 && height[succ] >= h)
+					h = height[succ]+1;
+			}
+			height[cl] = h;
+		}
+		levelClasses = new int[numClasses()];
+		levelStart = groupByLevel(height, levelClasses);
+		return levelStart;
+	}
+
+	/**
+	 * @return the classes grouped by level, see {@link #levels()}
+	 */
+	int[] levelClasses() {
+		levels();
+		return levelClasses;
+	}
+
+	/**
+	 * Partitions the classes into levels by the length of the longest path from the
+	 * first dummy column, counted in columns. Level 0 holds the successor class of
+	 * the first dummy column. The predecessor classes of the columns leading to a
+	 * class are all on lower levels.
+	 *
+	 * @return offsets of the levels in {@link #forwardLevelClasses()}, one more than
+	 * the number of levels
+	 * @see #levels()
+	 */
+	int[] forwardLevels() {
+		if(fwdLevelStart != null)
+			return fwdLevelStart;
+		int[] depth = new int[numClasses()];
+		for(int cl : order) {
+			int h = 0;
+			for(int e = predStart[cl], end = predStart[cl+1]; e < end; e++) {
+				int pred = colPred[predCols[e]];
+				if(pred != -1 && depth[pred] >= h)
+					h = depth[pred]+1;
+			}
+			depth[cl] = h;
+		}
+		fwdLevelClasses = new int[numClasses()];
+		fwdLevelStart = groupByLevel(depth, fwdLevelClasses);
+		return fwdLevelStart;
+	}
+
+	/**
+	 * @return the classes grouped by level, see {@link #forwardLevels()}
+	 */
+	int[] forwardLevelClasses() {
+		forwardLevels();
+		return fwdLevelClasses;
+	}
+
+	/**
+	 * Sorts the classes by level.
+	 *
+	 * @param level level of each class
+	 * @param classes filled with the classes, level by level
+	 * @return offsets of the levels in <code>classes</code>, one more than the number of levels
+	 */
+	private static int[] groupByLevel(int[] level, int[] classes) {
+		int numLevels = 0;
+		for(int h : level)
+			if(h >= numLevels)
+				numLevels = h+1;
+		int[] start = new int[numLevels+1];
+		for(int cl = 0; cl < level.length; cl++)
+			start[level[cl]+1]++;
+		for(int h = 0; h < numLevels; h++)
+			start[h+1] += start[h];
+		int[] fill = Arrays.copyOf(start, numLevels);
+		for(int cl = 0; cl < level.length; cl++)
+			classes[fill[level[cl]]++] = cl;
+		return start;
+	}
+
+	/**
+	 * Cuts the network into segments at its anchor columns, the columns seen in every
+	 * alignment. An anchor holds residues that no other column holds, so every path
+	 * of the network passes through all anchors, in the same order, and the columns
+	 * between two consecutive anchors form an independent sub-DAG. The class
+	 * preceding an anchor has the anchor as its only successor column.
+	 *
+	 * The classes of a segment are contiguous in the topological {@link #order}: the
+	 * successor class of an anchor comes first and its predecessor class last, as
+	 * the key of any class in between is bounded by theirs in every row.
+	 *
+	 * No pass uses the segments yet. Processing them independently sums scores in a
+	 * different order than a pass over the whole network, so a pass adopting them
+	 * must combine the segment results exactly to keep its results unchanged.
+	 *
+	 * @return offsets of the segments in {@link #order}, one more than the number of
+	 * segments
+	 * @see #anchors()
+	 */
+	int[] segments() {
+		if(segStart != null)
+			return segStart;
+		int numClasses = numClasses();
+		int[] pos = new int[numClasses];
+		for(int k = 0; k < numClasses; k++)
+			pos[order[k]] = k;
+		// anchors are sorted by the position of their predecessor class
+		long[] sorted = new long[numColumns()];
+		int numAnchors = 0;
+		for(int c = 0; c < count.length; c++)
+			if(count[c] == n && c != first)
+				sorted[numAnchors++] = (long)pos[colPred[c]] << 32 | c;
+		Arrays.sort(sorted, 0, numAnchors);
+		int[] start = new int[numAnchors+1], cols = new int[numAnchors];
+		for(int s = 0; s < numAnchors; s++) {
+			start[s+1] = (int)(sorted[s] >> 32) + 1;
+			cols[s] = (int)sorted[s];
+		}
+		anchors = cols;
+		segStart = start;
+		return start;
+	}
+
+	/**
+	 * @return the anchor column closing each segment, the last one is the last dummy
+	 * column
+	 * @see #segments()
+	 */
+	int[] anchors() {
+		segments();
+		return anchors;
+	}
+
+	public int numColumns() {
+		return count.length;
+	}
+
+	public int numClasses() {
+		return succFreq.length;
+	}
+
+	public int orderAt(int k) {
+		return order[k];
+	}
+
+	public int succStart(int cl) {
+		return succStart[cl];
+	}
+
+	public int succCol(int e) {
+		return succCols[e];
+	}
+
+	public int predStart(int cl) {
+		return predStart[cl];
+	}
+
+	public int predCol(int e) {
+		return predCols[e];
+	}
+
+	public int colSucc(int c) {
+		return colSucc[c];
+	}
+
+	public int colPred(int c) {
+		return colPred[c];
+	}
+
+	/**
+	 * @return successor class of the first dummy column, where all paths start
+	 */
+	int firstClass() {
+		return colSucc[first];
+	}
+
+	/**
+	 * Follows the choices of a Viterbi-type algorithm from the first to the last
+	 * dummy column.
+	 *
+	 * @param choice selected successor column of each class
+	 * @return ids of the columns along the path, dummy columns excluded
+	 */
+	int[] path(int[] choice) {
+		int len = 0;
+		for(int c = choice[firstClass()]; colSucc[c] != -1; c = choice[colSucc[c]])
+			len++;
+		int[] path = new int[len];
+		len = 0;
+		for(int c = choice[firstClass()]; colSucc[c] != -1; c = choice[colSucc[c]])
+			path[len++] = c;
+		return path;
+	}
+
+}
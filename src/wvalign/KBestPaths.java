@@ -0,0 +1,260 @@
+package wvalign;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Lazy enumeration of the best paths through a network, in decreasing order of
+ * their MinRisk score, by the recursive enumeration algorithm of Jimenez and Marzal.
+ *
+ * The best path from every class is computed once by the Viterbi algorithm. Further
+ * paths are only derived when asked for: the <tt>k</tt>-th best path from a class
+ * starts with one of the successor columns of the class, followed by one of the best
+ * paths from the successor class of that column. Each class keeps the paths found
+ * so far and a heap of candidates, one per successor column, and a candidate is
+ * replaced by the next path through the same column once it has been taken. The
+ * <tt>k</tt> best paths through the network thus need <tt>O(k)</tt> heap
+ * operations in the classes along each path, instead of enumerating all paths.
+ *
+ * The next path from a class may need the next path from a successor class first,
+ * and so on down to the end of the network, so the recursion of the algorithm is
+ * unrolled into an explicit stack of classes to keep long alignments off the call
+ * stack.
+ */
+class KBestPaths {
+
+	private final FrozenNetwork net;
+	private final double[] colScore;
+	/** score of the best path from each class and its first column */
+	private final double[] classScore;
+	private final int[] choice;
+	/** paths from each class found so far, created on demand */
+	private final Suffixes[] suffixes;
+	/** classes waiting for the next path from a successor class, see {@link #advance(int)} */
+	private int[] stack = new int[16];
+
+	/**
+	 * @param colScore score of each column, as in {@link ColumnNetwork#updateViterbi()}
+	 * @param pool pool running the Viterbi algorithm, null to run it on the calling thread
+	 */
+	KBestPaths(FrozenNetwork net, double[] colScore, ForkJoinPool pool) {
+		this.net = net;
+		this.colScore = colScore;
+		choice = new int[net.numClasses()];
+		classScore = new NetworkDP(net, NetworkDP.MAX_PLUS, 1, NetworkDP.columnScores(colScore))
+				.backward(null, choice, pool);
+		suffixes = new Suffixes[net.numClasses()];
+	}
+
+	/**
+	 * @param k rank of the path, 0 for the best path
+	 * @return score of the path, negative infinity if the network has no more than
+	 * <code>k</code> paths
+	 */
+	double score(int k) {
+		Suffixes list = suffixes(net.firstClass(), k);
+		return list == null ? Double.NEGATIVE_INFINITY : list.score[k];
+	}
+
+	/**
+	 * @param k rank of the path, 0 for the best path, must be less than the number
+	 * of paths
+	 * @return ids of the columns along the path, dummy columns excluded
+	 * @see #score(int)
+	 */
+	int[] path(int k) {
+		int cl = net.firstClass(), len = 0;
+		int[] path = new int[16];
+		while(true) {
+			// classes only seen on best paths have no list yet
+			Suffixes list = suffixes(cl, k);
+			if(list == null)
+				throw new Error("The network has no more than "+k+" paths");
+			int c = list.col[k];
+			if(net.colSucc[c] == -1)
+				break;
+			if(len == path.length)
+				path = Arrays.copyOf(path, len << 1);
+			path[len++] = c;
+			k = list.rank[k];
+			cl = net.colSucc[c];
+		}
+		return Arrays.copyOf(path, len);
+	}
+
+	/**
+	 * @return the paths from a class, at least <code>k+1</code> of them, or null
+	 * if there are no more than <code>k</code> paths from the class
+	 */
+	private Suffixes suffixes(int cl, int k) {
+		Suffixes list = list(cl);
+		while(list.size <= k && !list.exhausted)
+			advance(cl);
+		return list.size > k ? list : null;
+	}
+
+	private Suffixes list(int cl) {
+		Suffixes list = suffixes[cl];
+		if(list == null)
+			list = suffixes[cl] = new Suffixes(cl);
+		return list;
+	}
+
+	/**
+	 * Finds the next path from a class. Classes whose next path needs the next path
+	 * from a successor class first are kept on {@link #stack} until the successor
+	 * class is done.
+	 */
+	private void advance(int cl) {
+		int depth = 0;
+		stack[depth++] = cl;
+		while(depth > 0) {
+			Suffixes list = list(stack[depth-1]);
+			int sc = list.pending();
+			if(sc == -1) {
+				list.advance();
+				depth--;
+			} else {
+				if(depth == stack.length)
+					stack = Arrays.copyOf(stack, depth << 1);
+				stack[depth++] = sc;
+			}
+		}
+	}
+
+	/**
+	 * Paths from a class to the last dummy column, in decreasing order of score. Path
+	 * <tt>i</tt> is column <tt>col[i]</tt> followed by path <tt>rank[i]</tt> of the
+	 * successor class of the column.
+	 */
+	private class Suffixes {
+		int[] col, rank;
+		double[] score;
+		int size;
+		/** true once all paths from the class are found */
+		boolean exhausted;
+
+		/** candidates for the next path, a binary heap ordered by {@link #before(int, int)} */
+		private int[] heapCol, heapRank;
+		private double[] heapScore;
+		private int heapSize;
+
+		Suffixes(int cl) {
+			col = new int[4];
+			rank = new int[4];
+			score = new double[4];
+			int degree = net.succStart[cl+1]-net.succStart[cl];
+			heapCol = new int[Math.max(degree, 1)];
+			heapRank = new int[heapCol.length];
+			heapScore = new double[heapCol.length];
+			if(choice[cl] == -1) {
+				exhausted = true;
+				return;
+			}
+			append(choice[cl], 0, classScore[cl]);
+			for(int e = net.succStart[cl], end = net.succStart[cl+1]; e < end; e++) {
+				int c = net.succCols[e], sc = net.colSucc[c];
+				if(c != choice[cl])
+					push(c, 0, colScore[c]+(sc == -1 ? 0 : classScore[sc]));
+			}
+		}
+
+		/**
+		 * @return the successor class whose next path must be found before
+		 * {@link #advance()}, -1 if there is none
+		 */
+		int pending() {
+			int c = col[size-1], next = rank[size-1]+1, sc = net.colSucc[c];
+			if(sc == -1)
+				return -1;
+			Suffixes list = list(sc);
+			return list.size <= next && !list.exhausted ? sc : -1;
+		}
+
+		/**
+		 * Finds the next path, after replacing the candidate taken last by the next
+		 * path through the same column. The next path from the successor class of
+		 * that column must be found already, unless there is none.
+		 */
+		void advance() {
+			int c = col[size-1], next = rank[size-1]+1, sc = net.colSucc[c];
+			if(sc != -1 && suffixes[sc].size > next)
+				push(c, next, colScore[c]+suffixes[sc].score[next]);
+			if(heapSize == 0) {
+				exhausted = true;
+				return;
+			}
+			append(heapCol[0], heapRank[0], heapScore[0]);
+			pop();
+		}
+
+		private void append(int c, int r, double sc) {
+			if(size == col.length) {
+				col = Arrays.copyOf(col, size << 1);
+				rank = Arrays.copyOf(rank, size << 1);
+				score = Arrays.copyOf(score, size << 1);
+			}
+			col[size] = c;
+			rank[size] = r;
+			score[size] = sc;
+			size++;
+		}
+
+		/**
+		 * Candidates with a higher score come first, ties are broken by rank and
+		 * column id, so the order does not depend on the heap.
+		 */
+		private boolean before(int i, int j) {
+			if(heapScore[i] != heapScore[j])
+				return heapScore[i] > heapScore[j];
+			if(heapRank[i] != heapRank[j])
+				return heapRank[i] < heapRank[j];
+			return heapCol[i] < heapCol[j];
+		}
+
+		private void push(int c, int r, double sc) {
+			if(heapSize == heapCol.length) {
+				heapCol = Arrays.copyOf(heapCol, heapSize << 1);
+				heapRank = Arrays.copyOf(heapRank, heapSize << 1);
+				heapScore = Arrays.copyOf(heapScore, heapSize << 1);
+			}
+			int i = heapSize++;
+			heapCol[i] = c;
+			heapRank[i] = r;
+			heapScore[i] = sc;
+			while(i > 0 && before(i, (i-1) >> 1)) {
+				swap(i, (i-1) >> 1);
+				i = (i-1) >> 1;
+			}
+		}
+
+		private void pop() {
+			heapSize--;
+			swap(0, heapSize);
+			int i = 0;
+			while(true) {
+				int l = 2*i+1, best = i;
+				if(l < heapSize && before(l, best))
+					best = l;
+				if(l+1 < heapSize && before(l+1, best))
+					best = l+1;
+				if(best == i)
+					break;
+				swap(i, best);
+				i = best;
+			}
+		}
+
+		private void swap(int i, int j) {
+			int c = heapCol[i], r = heapRank[i];
+			double sc = heapScore[i];
+			heapCol[i] = heapCol[j];
+			heapRank[i] = heapRank[j];
+			heapScore[i] = heapScore[j];
+			heapCol[j] = c;
+			heapRank[j] = r;
+			heapScore[j] = sc;
+		}
+	}
+
+}
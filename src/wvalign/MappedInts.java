@@ -0,0 +1,69 @@
+package wvalign;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Array of ints kept in a memory mapped temporary file rather than in the heap. The
+ * file is mapped in chunks, so the array is not limited to 2 GB.
+ */
+class MappedInts implements NetworkSnapshot.IntSection {
+
+	private static final int CHUNK_BITS = 28;
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS)-1;
+
+	private File file;
+	private int length;
+	private IntBuffer[] chunks;
+
+	/**
+	 * Creates the file, which must not exist, with all ints set to 0.
+	 */
+	MappedInts(File file, int length) throws IOException {
+		this.file = file;
+		this.length = length;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(4L*length);
+			chunks = new IntBuffer[(int)((length+(long)CHUNK_MASK) >> CHUNK_BITS)];
+			for(int k = 0; k < chunks.length; k++) {
+				long from = (long)k << CHUNK_BITS;
+				long len = Math.min(length-from, CHUNK_MASK+1L);
+				chunks[k] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 4*from, 4*len).asIntBuffer();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	int get(int i) {
+		return chunks[i >>> CHUNK_BITS].get(i & CHUNK_MASK);
+	}
+
+	void set(int i, int value) {
+		chunks[i >>> CHUNK_BITS].put(i & CHUNK_MASK, value);
+	}
+
+	@Override
+	public void get(int from, int[] dest, int len) {
+		for(int k = 0; k < len; k++)
+			dest[k] = get(from+k);
+	}
+
+	/**
+	 * Deletes the file, the array must not be used afterwards.
+	 */
+	void delete() {
+		chunks = null;
+		file.delete();
+	}
+
+}
@@ -0,0 +1,321 @@
+package wvalign;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import wvalign.utils.MuInt;
+import wvalign.utils.ZobristHash;
+
+/**
+ * Column network used directly from a memory mapped network snapshot (see
+ * {@link NetworkSnapshot}), without creating any objects for the columns.
+ *
+ * Descriptors, counts, the class structure and the column hash table stay in the
+ * mapped file, the operating system pages them in as the algorithms walk over them.
+ * The heap only holds scores per class. Only the gap sensitive, single-state
+ * statistics are supported: the MinRisk alignment, the posterior of samples and the
+ * number of paths.
+ *
+ * A single mapping is limited to 2 GB. The descriptors are mapped in chunks of whole
+ * columns, so they may take any size, but the other sections are mapped as one
+ * buffer each. The hash table has at least two slots per column, which limits
+ * mapped networks to 2^27 columns.
+ *
+ * The algorithms run as {@link NetworkDP} passes over the mapped sections. A snapshot
+ * has no predecessor lists, so only backward passes are possible.
+ */
+class MappedNetwork implements NetworkDP.Adjacency {
+
+	/** max. number of bytes of descriptors mapped as a single buffer */
+	private static final int CHUNK_BYTES = 1 << 30;
+
+	int n;				// number of alignments the network was built from
+	int size;			// number of sequences
+	int numCols, numClasses;
+	int first, last;	// ids of the dummy columns
+	String[] names, sequences;
+	long viterbiTime;
+
+	private IntBuffer[] descriptors;	// descriptors in id order, chunkCols per buffer
+	private int chunkCols;
+	private IntBuffer count, colSucc, succStart, succCols, order, colPred, succFreq;
+	private IntBuffer slots;			// hash table of the columns, id+1 or 0 (see NetworkSnapshot)
+
+	private ZobristHash zobrist;
+	private int[] firstDescriptor;
+	private int[] descBuffer;
+
+	private RandomAccessFile file;
+	private long pos;					// file position of the next section while mapping
+
+	MappedNetwork(String fileName) throws IOException {
+		this(fileName, CHUNK_BYTES);
+	}
+
+	/**
+	 * @param chunkBytes max. number of bytes of descriptors mapped as a single buffer
+	 */
+	MappedNetwork(String fileName, int chunkBytes) throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		try {
+			byte[] header = new byte[36];
+			file.readFully(header);
+			CRC32 crc = new CRC32();
+			crc.update(header);
+			IntBuffer h = ByteBuffer.wrap(header).asIntBuffer();
+			if(h.get(0) != NetworkSnapshot.MAGIC)
+				throw new IOException(fileName+" is not a network snapshot");
+			int version = h.get(1);
+			if(version != NetworkSnapshot.VERSION)
+				throw new IOException("Unsupported snapshot version "+version+" in "+fileName);
+			if(file.readInt() != (int)crc.getValue())
+				throw new IOException("Checksum error in snapshot section header");
+			size = h.get(3);
+			n = h.get(4);
+			numCols = h.get(5);
+			numClasses = h.get(6);
+			first = h.get(7);
+			last = h.get(8);
+			pos = 40;
+
+			long len = sectionLength(), start = pos;
+			if(len != (long)numCols*size*4)
+				throw new IOException("Wrong length of snapshot section descriptors");
+			chunkCols = Math.max(1, chunkBytes/(4*size));
+			descriptors = new IntBuffer[(int)(((long)numCols+chunkCols-1)/chunkCols)];
+			for(int k = 0; k < descriptors.length; k++) {
+				int cols = Math.min(chunkCols, numCols-k*chunkCols);
+				descriptors[k] = map(start+(long)k*chunkCols*size*4, (long)cols*size*4).asIntBuffer();
+			}
+			pos += len+4;
+			count = nextSection().asIntBuffer();
+			colSucc = nextSection().asIntBuffer();
+			succStart = nextSection().asIntBuffer();
+			succCols = nextSection().asIntBuffer();
+			order = nextSection().asIntBuffer();
+			colPred = nextSection().asIntBuffer();
+			succFreq = nextSection().asIntBuffer();
+			slots = nextSection().asIntBuffer();
+			skipSection();		// pair frequencies
+
+			ByteBuffer strings = nextSection();
+			Charset utf8 = Charset.forName("UTF-8");
+			names = new String[size];
+			sequences = new String[size];
+			for(int i = 0; i < 2*size; i++) {
+				byte[] str = new byte[strings.getInt()];
+				strings.get(str);
+				strings.position(strings.position()+NetworkSnapshot.pad(str.length)-str.length);
+				if(i % 2 == 0)
+					names[i/2] = new String(str, utf8);
+				else
+					sequences[i/2] = new String(str, utf8);
+			}
+		} finally {
+			file.close();
+			file = null;
+		}
+
+		zobrist = new ZobristHash(size);
+		firstDescriptor = new int[size];
+		copyDescriptor(first, firstDescriptor);
+		descBuffer = new int[size];
+	}
+
+	private ByteBuffer map(long start, long len) throws IOException {
+		return file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, len);
+	}
+
+	/**
+	 * Reads the length of the next section and moves to its payload.
+	 */
+	private long sectionLength() throws IOException {
+		file.seek(pos);
+		long len = file.readLong();
+		pos = file.getFilePointer();
+		return len;
+	}
+
+	/**
+	 * Maps the payload of the next section.
+	 */
+	private ByteBuffer nextSection() throws IOException {
+		long len = sectionLength();
+		if(len > Integer.MAX_VALUE)
+			throw new IOException("Snapshot section of "+len+" bytes is too large to be mapped");
+		ByteBuffer buf = map(pos, len);
+		pos += len+4;
+		return buf;
+	}
+
+	private void skipSection() throws IOException {
+		long len = sectionLength();
+		pos += len+4;
+	}
+
+	/**
+	 * Copies the descriptor of a column into an array.
+	 */
+	void copyDescriptor(int col, int[] dest) {
+		IntBuffer chunk = descriptors[col/chunkCols];
+		for(int i = 0, off = (col%chunkCols)*size; i < size; i++, off++)
+			dest[i] = chunk.get(off);
+	}
+
+	private boolean matches(int col, int[] descriptor) {
+		IntBuffer chunk = descriptors[col/chunkCols];
+		for(int i = 0, off = (col%chunkCols)*size; i < size; i++, off++)
+			if(chunk.get(off) != descriptor[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Looks up a column.
+	 *
+	 * @param descriptor descriptor of the column
+	 * @param hash <code>ZobristHash</code> of the descriptor
+	 * @return id of the column or -1 if it is not in the network
+	 */
+	int find(int[] descriptor, int hash) {
+		int mask = slots.capacity()-1, pos = hash & mask, id;
+		while((id = slots.get(pos)) != 0) {
+			if(matches(id-1, descriptor))
+				return id-1;
+			pos = (pos+1) & mask;
+		}
+		return -1;
+	}
+
+	double getColMarginal(int col) {
+		return (double)count.get(col)/n;
+	}
+
+	public int numClasses() {
+		return numClasses;
+	}
+
+	public int numColumns() {
+		return numCols;
+	}
+
+	public int orderAt(int k) {
+		return order.get(k);
+	}
+
+	public int succStart(int cl) {
+		return succStart.get(cl);
+	}
+
+	public int succCol(int e) {
+		return succCols.get(e);
+	}
+
+	public int predStart(int cl) {
+		throw new UnsupportedOperationException("Network snapshots hold no predecessor lists");
+	}
+
+	public int predCol(int e) {
+		throw new UnsupportedOperationException("Network snapshots hold no predecessor lists");
+	}
+
+	public int colSucc(int c) {
+		return colSucc.get(c);
+	}
+
+	public int colPred(int c) {
+		return colPred.get(c);
+	}
+
+	/**
+	 * Computes the MinRisk alignment, see {@link ColumnNetwork#updateViterbi()}.
+	 *
+	 * @return ids of the columns of the MinRisk alignment
+	 */
+	int[] updateViterbi(final double gValue) {
+		viterbiTime -= System.currentTimeMillis();
+
+		int[] viterbi = new int[numClasses];
+		double[] classScore = new NetworkDP(this, NetworkDP.MAX_PLUS, 1, new NetworkDP.Weights() {
+			public double extend(double value, int col, int from, int to) {
+				return getColMarginal(col) - gValue + value;
+			}
+		}).backward(null, viterbi, null);
+		int firstClass = colSucc.get(first);
+		double score = classScore[firstClass];
+
+		int len = 0;
+		for(int c = viterbi[firstClass]; colSucc.get(c) != -1; c = viterbi[colSucc.get(c)])
+			len++;
+		int[] path = new int[len];
+		len = 0;
+		for(int c = viterbi[firstClass]; colSucc.get(c) != -1; c = viterbi[colSucc.get(c)])
+			path[len++] = c;
+
+		viterbiTime += System.currentTimeMillis();
+		System.out.format(Locale.ENGLISH, "Viterbi score: %.3f\n", score);
+
+		return path;
+	}
+
+	/**
+	 * Scores an alignment, see {@link ColumnNetwork#scoreAlignment(String[], MuInt, boolean)}.
+	 */
+	double scoreAlignment(String[] align, MuInt rlen, boolean computeLogPosterior) {
+		int len = align[0].length(), i, j, d, nd;
+
+		rlen.value = 0;
+		double score = 0;
+		int[] descriptor = descBuffer;
+		System.arraycopy(firstDescriptor, 0, descriptor, 0, size);
+		int hash = zobrist.hash(descriptor);
+		boolean allGap;
+		for(j = 0; j < len; j++) {
+			allGap = true;
+			for(i = 0; i < size; i++){
+				nd = d = descriptor[i];
+				nd += d & 1;
+				if(align[i].charAt(j) != '-') {
+					nd++;
+					allGap = false;
+				}
+				if(nd != d) {
+					hash = zobrist.update(hash, i, d, nd);
+					descriptor[i] = nd;
+				}
+			}
+			if(!allGap) {
+				rlen.value++;
+				int id = find(descriptor, hash);
+				if(id == -1)
+					throw new Error("could not find column");
+				if(computeLogPosterior)
+					score += Math.log((double)count.get(id)/(double)succFreq.get(colPred.get(id)));
+				else
+					score += getColMarginal(id);
+			}
+		}
+
+		return score;
+	}
+
+	/**
+	 * @return log of the number of paths through the network
+	 */
+	double logNPaths() {
+		// number of paths from each class to the last dummy column
+		double[] N = new NetworkDP(this, NetworkDP.LOG_SUM, 1, new NetworkDP.Weights() {
+			public double extend(double value, int col, int from, int to) {
+				return value;
+			}
+		}).backward(null, null, null);
+		return N[colSucc.get(first)];
+	}
+
+}
@@ -40,6 +40,11 @@ public class MarginalTree {
 	
 	long time = 0;
 	
+	private FrozenNetwork net;
+	private double[] colScores;		// log emission probabilities of the columns
+	private double[] classProb;		// sum of the marginals of the successor columns of each class
+	private double[] fwd;			// forward (log) probabilities of the classes
+	
 	public MarginalTree(AlignmentDAG _m, 
 			SubstitutionModel _model,
 			String _outfile) {
@@ -60,7 +65,7 @@ public class MarginalTree {
 
 		// annotate
 		calcEmissions();
-		double fwd = forward(m.columnNetwork.lastCol);
+		double fwd = forward();
 		//System.out.println(fwd);
 		
 		time += System.currentTimeMillis();
@@ -94,7 +99,7 @@ public class MarginalTree {
 				splits = TreeSplits.getNamedSplits(tree);
 				if (sampledNewicks.containsKey(treeString)) continue;
 				sampledNewicks.put(treeString,true);
-				resetForward(m.columnNetwork.lastCol.pred);	
+				resetForward();	
 				tree.setSubstModel(model);
 				logLikelihood = computeLogLikelihood();
 				if (!sampledTrees.containsKey(splits)) {
@@ -126,69 +131,60 @@ public class MarginalTree {
 	 */
 	private void calcEmissions() {
 		System.err.print("Calculating emissions...");
-		for(ColClass cl : m.columnNetwork.succMap.values()) {
-			int n = m.columnNetwork.n;
-			double classProb = 0;
-			for(Column c : cl.succList)
-				classProb += (double)c.count/n;
-			cl.score = classProb;
+		int numClasses = net.numClasses(), n = net.n;
+		int[] succStart = net.succStart, succCols = net.succCols;
+		colScores = new double[net.numColumns()];	// zero for the dummy columns
+		classProb = new double[numClasses];
+		int[] desc = new int[m.sequences.length];
+		for(int cl = 0; cl < numClasses; cl++) {
+			double p = 0;
+			for(int e = succStart[cl]; e < succStart[cl+1]; e++)
+				p += (double)net.count[succCols[e]]/n;
+			classProb[cl] = p;
 			
-			for(Column c : cl.succList) {
-				c.scores = new double[1];
-				if(c.succ == null) {
-					Arrays.fill(c.scores, 0);
+			for(int e = succStart[cl]; e < succStart[cl+1]; e++) {
+				int c = succCols[e];
+				if(net.colSucc[c] == -1)
 					continue;
-				}
-//				double condMarg = ((double)c.count/n)/classProb;
-				char[] obs = getObserv(c.key.desc);
+//				double condMarg = ((double)net.count[c]/n)/p;
+				m.columnNetwork.contIndex.copy(c, desc);
+				char[] obs = getObserv(desc);
 				//System.out.println(obs);
-//					c.scores[i] = Math.log(tree.calcSubstLike(obs, i)*condMarg);
-				c.scores[0] = Math.log(tree.calcSubstLike(obs, 0));
-//					System.out.println("emission "+c+": "+Math.exp(c.scores[0]));
+//					colScores[c] = Math.log(tree.calcSubstLike(obs, i)*condMarg);
+				colScores[c] = Math.log(tree.calcSubstLike(obs, 0));
+//					System.out.println("emission "+c+": "+Math.exp(colScores[c]));
 				
 			}
 		}
-		m.columnNetwork.firstCol.scores = new double[1];
-		Arrays.fill(m.columnNetwork.firstCol.scores, 0);
 		System.err.println("done.");
 	}
 	
-	private void resetForward(ColClass cl) {
-		if (cl==null || cl.fwd == null) return;
-		cl.fwd = null;
-		for(Column c : cl.predList) resetForward(c.pred);
-	}
+	/**
+	 * Discards the forward probabilities, they are recomputed by the next call
+	 * to {@link #computeLogLikelihood()}.
+	 */
 	void resetForward() {
-		resetForward(m.columnNetwork.lastCol.pred);
+		fwd = null;
 	}
-	private double forward(Column lastCol) {
+
+	/**
+	 * Forward algorithm over the column classes in topological order.
+	 * 
+	 * @return marginal (log) likelihood
+	 */
+	private double forward() {
 		System.err.print("Computing marginal likelihood...");
-		double fwd = forward(lastCol.pred);
+		NetworkDP dp = new NetworkDP(net, NetworkDP.LOG_SUM, 1, new NetworkDP.Weights() {
+			public double extend(double value, int c, int from, int to) {
+//				double jmp = 0;
+				double jmp = Math.log(((double)net.count[c]/net.n)/classProb[net.colSucc[c]]);
+				double fcs = value+colScores[c];	// real (log) forward score of column c
+				return fcs+jmp;
+			}
+		});
+		fwd = dp.forward(null, m.columnNetwork.pool());
 		System.err.println("done.");
-		return fwd;		
-	}
-
-	private double forward(ColClass cl) {
-		if(cl == null) {//cl.predList.size() == 1 && cl.predList.get(0).pred == null)
-			return 0;
-		}
-		if(cl.fwd != null)
-			return cl.fwd[0];
-		double fwd = Utils.log0;
-		double fcs;
-		for(Column c : cl.predList) {
-			double pfwd = forward(c.pred);
-//			double jmp = 0;
-//			System.out.println(c.count+" "+m.columnNetwork.n+" "+cl.score+" "+c.scores[0]);
-			double jmp = Math.log(((double)c.count/m.columnNetwork.n)/cl.score);
-			fcs = pfwd+c.scores[0];	// real (log) forward score of column c, state s
-			fwd = Utils.logAdd(fwd, fcs+jmp);	
-//			System.out.println(c + ": " + jmp + " " + " " + pfwd + " " + fcs + " " +fwd);
-
-		}
-		if (cl.fwd == null) cl.fwd = new double[1];
-		cl.fwd[0] = fwd;
-		return fwd;
+		return fwd[net.colPred[net.last]];
 	}
 
 	private char[] getObserv(int[] desc) {
@@ -203,18 +199,10 @@ public class MarginalTree {
 	}
 
 	/**
-	 * Creates predecessor links in the network.
+	 * Takes an array based snapshot of the network for the likelihood calculations.
 	 */
 	void doubleLink() {
-		for(ColClass cl : m.columnNetwork.succMap.values()) {
-			cl.predList = new ArrayList<Column>();
-			for(Column col : cl.succList)
-				col.pred = cl;
-		}
-		for(Column col : m.columnNetwork.contMap.values()) {
-			if(col.succ != null)
-				col.succ.predList.add(col);
-		}
+		net = m.columnNetwork.freeze();
 	}
 
 }
@@ -4,8 +4,6 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import wvalign.model.SubstitutionModel;
@@ -23,6 +21,13 @@ public class MinRiskAnnotator {
 	private boolean gapIsChar;		// gap is part of the alphabet (with subst rates etc.)
 	
 	private ColumnNetwork network;
+	private FrozenNetwork net;
+	private int states;					// number of annotation states
+	
+	private double[] colScores;		// log emission probabilities, [column*states+state]
+	private double[] classProb;		// sum of the marginals of the successor columns of each class
+	private double[] fwd, bwd;			// forward and backward (log) probabilities, [class*states+state]
+	private int[] choice;				// column chosen by the Viterbi algorithm for each class
 	
 	private int minRiskMode = 1;		// 0: P(col), 1: P(col, state)
 	private File outFile;
@@ -56,7 +61,7 @@ public class MinRiskAnnotator {
 		gapIsChar = new String(model.alphabet).contains(""+GAPCHAR);
 	}
 
-	public Column annotate(ColumnNetwork network, String[] sequences, String[] seqNames) {
+	public int[] annotate(ColumnNetwork network, String[] sequences, String[] seqNames) {
 		this.network = network;
 		
 		System.out.println("Gaps are treated as "+(gapIsChar?"characters":"missing data"));
@@ -65,7 +70,8 @@ public class MinRiskAnnotator {
 		annotTime -= System.currentTimeMillis();
 		
 		// init
-		doubleLink();
+		net = network.freeze();
+		states = initState.length;
 		tree.sortNames(seqNames);
 		
 		System.out.println("Calculating emissions...");
@@ -73,34 +79,24 @@ public class MinRiskAnnotator {
 		calcEmissions(sequences);
 		
 		System.out.println("Forward-Backward-Viterbi...");
-		double fwd = forward(network.lastCol);
+		double fwd = forward();
 		System.out.println("Forward score: "+fwd);
 		dataProb = fwd;
 		
-		double bwd = backward(network.firstCol);
+		double bwd = backward();
 		System.out.println("Backward score: "+bwd);
 		
-		double vit = viterbi(network.firstCol, fwd);
+		double vit = viterbi(fwd);
 		System.out.println("Viterbi score: "+vit);
+		int[] path = net.path(choice);
 
 		annotTime += System.currentTimeMillis();
 
 		try {
 			BufferedWriter writer = new BufferedWriter(new FileWriter(outFile));
 			
-			Column col = network.firstCol.succ.viterbi;
-			while(col.succ != null) {
-				double total = Utils.log0;
-				for(int i = 0; i < initState.length; i++)
-					total = Utils.logAdd(total, col.pred.fwd[i]+col.scores[i]+col.succ.bwd[i]);
-				for(int state = 0; state < initState.length; state++) {
-					double score = Math.exp(col.pred.fwd[state]+col.scores[state]+col.succ.bwd[state]-total);///((double)col.count/network.n);
-					if(state > 0)
-						writer.write('\t');
-					writer.write(""+score);
-				}
-				writer.write('\n');
-				col = col.succ.viterbi;
+			for(int col : path) {
+				writeStateProbs(writer, col, 0);
 			}
 			writer.close();
 			
@@ -115,21 +111,10 @@ public class MinRiskAnnotator {
 				
 				writer = new BufferedWriter(new FileWriter(pseqFile));
 
-				col = network.firstCol.succ.viterbi;
-				while(col.succ != null) {
-					if((col.key.desc[id] & 1) == 1) {
-						double total = Utils.log0;
-						for(int i = 0; i < initState.length; i++)
-							total = Utils.logAdd(total, col.pred.fwd[i]+col.scores[i]+col.succ.bwd[i]);
-						for(int state = 1; state < initState.length; state++) {
-							double score = Math.exp(col.pred.fwd[state]+col.scores[state]+col.succ.bwd[state]-total);///((double)col.count/network.n);
-							if(state > 1)
-								writer.write('\t');
-							writer.write(""+score);
-						}
-						writer.write('\n');
+				for(int col : path) {
+					if((network.contIndex.get(col, id) & 1) == 1) {
+						writeStateProbs(writer, col, 1);
 					}
-					col = col.succ.viterbi;
 				}
 				writer.close();
 			}
@@ -138,7 +123,25 @@ public class MinRiskAnnotator {
 			e.printStackTrace();
 		}
 		
-		return network.firstCol;
+		return path;
+	}
+	
+	/**
+	 * Writes the posterior probabilities of the annotation states of a column as a
+	 * tab separated line, starting from state <code>from</code>. 
+	 */
+	private void writeStateProbs(BufferedWriter writer, int col, int from) throws IOException {
+		int pred = net.colPred[col]*states, succ = net.colSucc[col]*states, sc = col*states;
+		double total = Utils.log0;
+		for(int i = 0; i < states; i++)
+			total = Utils.logAdd(total, fwd[pred+i]+colScores[sc+i]+bwd[succ+i]);
+		for(int state = from; state < states; state++) {
+			double score = Math.exp(fwd[pred+state]+colScores[sc+state]+bwd[succ+state]-total);///((double)col.count/network.n);
+			if(state > from)
+				writer.write('\t');
+			writer.write(""+score);
+		}
+		writer.write('\n');
 	}
 	
 	/**
@@ -146,138 +149,124 @@ public class MinRiskAnnotator {
 	 * column equivalence classes.
 	 */
 	private void calcEmissions(String[] sequences) {
-		int states = initState.length;
-		for(ColClass cl : network.succMap.values()) {
-			int n = network.n;
-			double classProb = 0;
-			for(Column c : cl.succList)
-				classProb += (double)c.count/n;
-			cl.score = classProb;
+		int numClasses = net.numClasses(), n = net.n;
+		int[] succStart = net.succStart, succCols = net.succCols, count = net.count;
+		colScores = new double[net.numColumns()*states];	// zero for the dummy columns
+		classProb = new double[numClasses];
+		int[] desc = new int[sequences.length];
+		for(int cl = 0; cl < numClasses; cl++) {
+			double p = 0;
+			for(int e = succStart[cl]; e < succStart[cl+1]; e++)
+				p += (double)count[succCols[e]]/n;
+			classProb[cl] = p;
 			
-			for(Column c : cl.succList) {
-				c.scores = new double[states];
-				if(c.succ == null) {
-					Arrays.fill(c.scores, 0);
+			for(int e = succStart[cl]; e < succStart[cl+1]; e++) {
+				int c = succCols[e];
+				if(net.colSucc[c] == -1)
 					continue;
-				}
-//				double condMarg = ((double)c.count/n)/classProb;
-				char[] obs = getObserv(c.key.desc, sequences);
+//				double condMarg = ((double)count[c]/n)/p;
+				network.contIndex.copy(c, desc);
+				char[] obs = getObserv(desc, sequences);
 				for(int i = 0; i < states; i++) {
-//					c.scores[i] = Math.log(tree.calcSubstLike(obs, i)*condMarg);
-					c.scores[i] = Math.log(tree.calcSubstLike(obs, i));
-//					System.out.println("emission "+c+" state "+i+": "+Math.exp(c.scores[i]));
+//					colScores[c*states+i] = Math.log(tree.calcSubstLike(obs, i)*condMarg);
+					colScores[c*states+i] = Math.log(tree.calcSubstLike(obs, i));
+//					System.out.println("emission "+c+" state "+i+": "+Math.exp(colScores[c*states+i]));
 				}
 			}
 		}
-		network.firstCol.scores = new double[states];
-		Arrays.fill(network.firstCol.scores, 0);
 	}
 	
-	private double forward(Column lastCol) {
-		double[] fwd = forward(lastCol.pred);
+	/**
+	 * Forward algorithm over the column classes in topological order.
+	 * 
+	 * @return total (log) probability
+	 */
+	private double forward() {
+		final double[] jmp = jumps(net.colSucc);
+		NetworkDP dp = new NetworkDP(net, NetworkDP.LOG_SUM, states, new NetworkDP.Weights() {
+			public double extend(double value, int c, int s, int t) {
+				// real (log) forward score of column c, state s
+				double fcs = value+colScores[c*states+s];
+				return fcs+transMat[s][t]+jmp[c];
+			}
+		});
+		fwd = dp.forward(initState, network.pool());
+		int off = net.colPred[net.last]*states;
 		double total = Utils.log0;
-		for(int i = 0; i < fwd.length; i++)
-			total = Utils.logAdd(total, fwd[i]);
+		for(int i = 0; i < states; i++)
+			total = Utils.logAdd(total, fwd[off+i]);
 		return total;
 	}
-
-	private double[] forward(ColClass cl) {
-		if(cl == null) {//cl.predList.size() == 1 && cl.predList.get(0).pred == null)
-			return initState;
-		}
-		if(cl.fwd != null)
-			return cl.fwd;
-		int states = initState.length, s, t;
-		double[] fwd = new double[states];
-		Arrays.fill(fwd, Utils.log0);
-		double fcs;
-		for(Column c : cl.predList) {
-			double[] pfwd = forward(c.pred);
-//			double jmp = 0;
-			double jmp = Math.log(((double)c.count/network.n)/cl.score);
-			for(s = 0; s < states; s++) {
-				fcs = pfwd[s]+c.scores[s];	// real (log) forward score of column c, state s
-//				System.out.println("forward "+c+" state "+s+": "+Math.exp(fcs));
-				for(t = 0; t < states; t++)
-					fwd[t] = Utils.logAdd(fwd[t], fcs+transMat[s][t]+jmp);
+	
+	/**
+	 * Backward algorithm over the column classes in reverse topological order.
+	 * 
+	 * @return total (log) probability
+	 */
+	private double backward() {
+		final double[] jmp = jumps(net.colPred);
+		NetworkDP dp = new NetworkDP(net, NetworkDP.LOG_SUM, states, new NetworkDP.Weights() {
+			public double extend(double value, int c, int s, int t) {
+				double bcs = value+colScores[c*states+t];
+				return bcs+transMat[s][t]+jmp[c];
 			}
-		}
-		cl.fwd = fwd;
-		return fwd;
-	}
-
-	private double backward(Column firstCol) {
-		double[] bwd = backward(firstCol.succ);
+		});
+		bwd = dp.backward(null, null, network.pool());
+		int off = net.firstClass()*states;
 		double total = Utils.log0;
-		for(int i = 0; i < bwd.length; i++)
-			total = Utils.logAdd(total, initState[i]+bwd[i]);
+		for(int i = 0; i < states; i++)
+			total = Utils.logAdd(total, initState[i]+bwd[off+i]);
 		return total;
 	}
 
-	private double[] backward(ColClass cl) {
-		if(cl == null) {
-			double[] ret = new double[initState.length];
-			Arrays.fill(ret, 0);
-			return ret;
-		}
-		if(cl.bwd != null)
-			return cl.bwd;
-		int states = initState.length, s, t;
-		double[] bwd = new double[states];
-		Arrays.fill(bwd, Utils.log0);
-		double bcs;
-		for(Column c : cl.succList) {
-			double[] sbwd = backward(c.succ);
-//			double jmp = 0;
-			double jmp = Math.log(((double)c.count/network.n)/cl.score);
-			for(t = 0; t < states; t++) {
-				bcs = sbwd[t]+c.scores[t];
-//				System.out.println("backward "+c+" state "+t+": "+Math.exp(sbwd[t]));
-				for(s = 0; s < states; s++)
-					bwd[s] = Utils.logAdd(bwd[s], bcs+transMat[s][t]+jmp);
-			}
-		}
-		cl.bwd = bwd;
-		return bwd;
-	}
-
-	private double viterbi(Column firstCol, double dataProb) {
-		for(ColClass succClass : network.succMap.values()) {
-			succClass.score = Double.NEGATIVE_INFINITY;
-			succClass.viterbi = null;
-		}
-		return viterbi(firstCol.succ, dataProb);
+	/**
+	 * Log of the conditional marginal of each column given one of its classes.
+	 * 
+	 * @param colClass class of each column the marginal is conditioned on, -1 where
+	 * there is none
+	 */
+	private double[] jumps(int[] colClass) {
+		double[] jmp = new double[net.numColumns()];
+		for(int c = 0; c < jmp.length; c++)
+			if(colClass[c] != -1)
+				jmp[c] = Math.log(((double)net.count[c]/net.n)/classProb[colClass[c]]);
+		return jmp;
 	}
 
-	private double viterbi(ColClass colClass, double dataProb) {
-		if(colClass == null)
-			return 0;
-		if(colClass.score != Double.NEGATIVE_INFINITY)
-			return colClass.score;
-		double[] fwd = colClass.fwd, bwd;
-		for(Column col : colClass.succList) {
-			if(col.succ == null) {
-				colClass.viterbi = col;
-				return 0;
-			}
-			bwd = col.succ.bwd;
-			double total = Utils.log0, score;
-			if(minRiskMode == 1)
-				for(int i = 0; i < initState.length; i++)
-					total = Utils.logAdd(total, fwd[i]+col.scores[i]+bwd[i]);
-			for(int i = 0; i < initState.length; i++) {
-				if(minRiskMode == 0)
-					score = ((double)col.count/network.n) - network.gValue + viterbi(col.succ, dataProb);
-				else
-					score = Math.exp(fwd[i]+col.scores[i]+bwd[i]-total) * ((double)col.count/network.n) - network.gValue + viterbi(col.succ, dataProb);
-				if(score > colClass.score) {
-					colClass.score = score;
-					colClass.viterbi = col;
-					colClass.vitState = i;
+	/**
+	 * MinRisk Viterbi algorithm using the annotation, over the column classes in
+	 * reverse topological order. Choices are stored in {@link #choice}.
+	 * 
+	 * @return Viterbi score
+	 */
+	private double viterbi(double dataProb) {
+		final int[] colPred = net.colPred, colSucc = net.colSucc, count = net.count;
+		NetworkDP dp = new NetworkDP(net, NetworkDP.MAX_PLUS, 1, new NetworkDP.Weights() {
+			public double extend(double value, int c, int from, int to) {
+				int sc = colSucc[c];
+				if(sc == -1) {
+					// class of the last dummy column, which has no other successor
+					return 0;
+				}
+				int off = colPred[c]*states, boff = sc*states, coff = c*states;
+				double total = Utils.log0, score, best = Double.NEGATIVE_INFINITY;
+				if(minRiskMode == 1)
+					for(int i = 0; i < states; i++)
+						total = Utils.logAdd(total, fwd[off+i]+colScores[coff+i]+bwd[boff+i]);
+				for(int i = 0; i < states; i++) {
+					if(minRiskMode == 0)
+						score = ((double)count[c]/net.n) - network.gValue + value;
+					else
+						score = Math.exp(fwd[off+i]+colScores[coff+i]+bwd[boff+i]-total) * ((double)count[c]/net.n) - network.gValue + value;
+					if(score > best)
+						best = score;
 				}
+				return best;
 			}
-		}
-		return colClass.score;
+		});
+		choice = new int[net.numClasses()];
+		double[] classScore = dp.backward(null, choice, network.pool());
+		return classScore[net.firstClass()];
 	}
 
 	private char[] getObserv(int[] desc, String[] sequences) {
@@ -291,21 +280,6 @@ public class MinRiskAnnotator {
 		return observ;
 	}
 
-	/**
-	 * Creates predecessor links in the network.
-	 */
-	private void doubleLink() {
-		for(ColClass cl : network.succMap.values()) {
-			cl.predList = new ArrayList<Column>();
-			for(Column col : cl.succList)
-				col.pred = cl;
-		}
-		for(Column col : network.contMap.values()) {
-			if(col.succ != null)
-				col.succ.predList.add(col);
-		}
-	}
-
 	/**
 	 * Sets output file for annotation.
 	 */
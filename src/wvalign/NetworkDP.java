@@ -0,0 +1,394 @@
+package wvalign;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import wvalign.utils.Utils;
+
+/**
+ * Dynamic programming over the classes of a network, parameterised by a semiring and
+ * the weights of the columns. The network is seen through {@link Adjacency}, usually
+ * a {@link FrozenNetwork}.
+ *
+ * Every class holds a value for each of a fixed number of states. A path enters the
+ * predecessor class of a column in some state and leaves through the column into
+ * its successor class in some other state, the value carried along is extended by
+ * {@link Weights#extend(double, int, int, int)}. The forward pass computes for each
+ * class the semiring sum over all paths from the first dummy column into the class,
+ * visiting the classes in topological order; the backward pass the sum over all
+ * paths from the class to the last dummy column, in reverse topological order.
+ *
+ * Given the values of the neighbouring classes the value of a class does not depend
+ * on the order in which classes are visited, so the passes can be run level by level
+ * on a fork/join pool (see {@link FrozenNetwork#levels()} and
+ * {@link FrozenNetwork#forwardLevels()}), giving the same result as the sequential
+ * passes. Weights must then be safe to call from several threads.
+ *
+ * With {@link #COLUMN_STATES} the state of a class is the column a path entered it
+ * through, for weights that depend on pairs of consecutive columns.
+ */
+class NetworkDP {
+
+	/**
+	 * Classes and columns of a network as seen by the passes. The successor columns
+	 * of class <tt>cl</tt> are <tt>succCol(e)</tt> for <tt>e</tt> in
+	 * <tt>succStart(cl)..succStart(cl+1)-1</tt>, likewise for the predecessor columns.
+	 * Forward passes need the predecessor lists, backward passes the successor lists.
+	 */
+	interface Adjacency {
+		int numClasses();
+		int numColumns();
+		/** @return class at position <tt>k</tt> of the topological order */
+		int orderAt(int k);
+		int succStart(int cl);
+		int succCol(int e);
+		int predStart(int cl);
+		int predCol(int e);
+		/** @return successor class of a column, -1 for the last dummy column */
+		int colSucc(int c);
+		/** @return class whose successor list contains the column, -1 for the first dummy column */
+		int colPred(int c);
+	}
+
+	/**
+	 * Addition of a semiring over doubles. Multiplication is left to
+	 * {@link Weights#extend(double, int, int, int)}, so that each algorithm keeps
+	 * control of the order of its floating point operations.
+	 */
+	interface Semiring {
+		/** @return neutral element of {@link #plus(double, double)}, the value of no path */
+		double zero();
+		/** @return neutral element of the multiplication, the value of the empty path */
+		double one();
+		double plus(double a, double b);
+	}
+
+	/**
+	 * Weights of the columns of the network.
+	 */
+	interface Weights {
+		/**
+		 * Extends the value of a path by a column.
+		 *
+		 * @param value value of the path up to the predecessor class of the column
+		 * (forward pass) or from the successor class of the column (backward pass)
+		 * @param col id of the column
+		 * @param from state of the predecessor class
+		 * @param to state of the successor class
+		 * @return the extended value
+		 */
+		double extend(double value, int col, int from, int to);
+	}
+
+	/** (max, +) semiring of the Viterbi algorithm, ties are kept by the first column */
+	static final Semiring MAX_PLUS = new Semiring() {
+		public double zero() {
+			return Double.NEGATIVE_INFINITY;
+		}
+		public double one() {
+			return 0;
+		}
+		public double plus(double a, double b) {
+			return b > a ? b : a;
+		}
+	};
+
+	/** (log-sum, +) semiring of log probabilities */
+	static final Semiring LOG_SUM = new Semiring() {
+		public double zero() {
+			return Utils.log0;
+		}
+		public double one() {
+			return 0;
+		}
+		public double plus(double a, double b) {
+			return Utils.logAdd(a, b);
+		}
+	};
+
+	/** (+, *) semiring of probabilities */
+	static final Semiring SUM_PRODUCT = new Semiring() {
+		public double zero() {
+			return 0;
+		}
+		public double one() {
+			return 1;
+		}
+		public double plus(double a, double b) {
+			return a+b;
+		}
+	};
+
+	/**
+	 * @return weights adding a score to the value for each column, with a single state
+	 */
+	static Weights columnScores(final double[] colScore) {
+		return new Weights() {
+			public double extend(double value, int col, int from, int to) {
+				return colScore[col]+value;
+			}
+		};
+	}
+
+	/**
+	 * Number of states making the state of a class the column the path entered it
+	 * through. Values are then kept per column, <tt>values[c]</tt> is the value of the
+	 * paths from the first dummy column ending with column <tt>c</tt> (forward pass),
+	 * or of the paths following <tt>c</tt> to the last dummy column (backward pass).
+	 * {@link Weights#extend(double, int, int, int)} gets the column preceding
+	 * <tt>col</tt> on the path as <tt>from</tt> and 0 as <tt>to</tt>.
+	 */
+	static final int COLUMN_STATES = 0;
+
+	/** number of classes below which a level or chunk is not split further */
+	static final int GRAIN = 512;
+
+	final Adjacency net;
+	/** the network if it is a {@link FrozenNetwork}, whose levels the parallel passes use */
+	private final FrozenNetwork frozen;
+	private final Semiring semiring;
+	private final int states;
+	private final Weights weights;
+
+	/** value of each state of each class, <tt>[class*states+state]</tt> */
+	final double[] values;
+
+	private boolean backward;
+	/** values before the first or after the last dummy column */
+	private double[] boundary;
+	private int[] choice;
+
+	/**
+	 * @param states number of states of each class, or {@link #COLUMN_STATES}
+	 */
+	NetworkDP(FrozenNetwork net, Semiring semiring, int states, Weights weights) {
+		this(net, net, semiring, states, weights);
+	}
+
+	/**
+	 * Creates passes over a network that is not a {@link FrozenNetwork}, they only run
+	 * on the calling thread.
+	 */
+	NetworkDP(Adjacency net, Semiring semiring, int states, Weights weights) {
+		this(net, null, semiring, states, weights);
+	}
+
+	private NetworkDP(Adjacency net, FrozenNetwork frozen, Semiring semiring, int states, Weights weights) {
+		this.net = net;
+		this.frozen = frozen;
+		this.semiring = semiring;
+		this.states = states;
+		this.weights = weights;
+		values = new double[states == COLUMN_STATES ? net.numColumns() : net.numClasses()*states];
+	}
+
+	/**
+	 * Runs the forward pass.
+	 *
+	 * @param initial value of each state before the first dummy column, null for
+	 * {@link Semiring#one()} in all states
+	 * @param pool pool running the pass level by level, null to run it on the calling thread
+	 * @return {@link #values}
+	 */
+	double[] forward(double[] initial, ForkJoinPool pool) {
+		start(false, initial, null);
+		if(pool == null) {
+			for(int k = 0, numClasses = net.numClasses(); k < numClasses; k++)
+				relax(net.orderAt(k));
+		} else {
+			run(frozen().forwardLevels(), frozen().forwardLevelClasses(), pool);
+		}
+		return values;
+	}
+
+	/**
+	 * Runs the backward pass.
+	 *
+	 * @param terminal value of each state after the last dummy column, null for
+	 * {@link Semiring#one()} in all states
+	 * @param choice filled with the successor column of each class contributing to
+	 * its value, the first one in case of ties, for selective semirings like
+	 * {@link #MAX_PLUS} and a single state only; may be null
+	 * @param pool pool running the pass level by level, null to run it on the calling thread
+	 * @return {@link #values}
+	 */
+	double[] backward(double[] terminal, int[] choice, ForkJoinPool pool) {
+		start(true, terminal, choice);
+		if(pool == null) {
+			for(int k = net.numClasses()-1; k >= 0; k--)
+				relax(net.orderAt(k));
+		} else {
+			run(frozen().levels(), frozen().levelClasses(), pool);
+		}
+		return values;
+	}
+
+	private FrozenNetwork frozen() {
+		if(frozen == null)
+			throw new Error("Only passes over a FrozenNetwork run on a pool");
+		return frozen;
+	}
+
+	/**
+	 * Prepares a pass whose classes are then computed by {@link #relax(int)}, for
+	 * callers visiting the classes in an order of their own.
+	 *
+	 * @see #forward(double[], ForkJoinPool)
+	 * @see #backward(double[], int[], ForkJoinPool)
+	 */
+	void start(boolean backward, double[] boundary, int[] choice) {
+		if(choice != null && states != 1)
+			throw new Error("Choices are only recorded with a single state");
+		if(boundary == null) {
+			boundary = new double[Math.max(states, 1)];
+			Arrays.fill(boundary, semiring.one());
+		}
+		this.backward = backward;
+		this.boundary = boundary;
+		this.choice = choice;
+	}
+
+	/**
+	 * Computes the values of a class, the neighbouring classes in the direction of
+	 * the pass must be done.
+	 */
+	void relax(int cl) {
+		if(states == COLUMN_STATES) {
+			if(backward)
+				relaxColumnsBackward(cl);
+			else
+				relaxColumnsForward(cl);
+		} else if(backward) {
+			relaxBackward(cl);
+		} else {
+			relaxForward(cl);
+		}
+	}
+
+	private void relaxForward(int cl) {
+		final Adjacency net = this.net;
+		final double[] values = this.values;
+		final int states = this.states, off = cl*states;
+		final double zero = semiring.zero();
+		for(int t = 0; t < states; t++)
+			values[off+t] = zero;
+		for(int e = net.predStart(cl), end = net.predStart(cl+1); e < end; e++) {
+			int c = net.predCol(e), p = net.colPred(c);
+			for(int s = 0; s < states; s++) {
+				double v = p == -1 ? boundary[s] : values[p*states+s];
+				for(int t = 0; t < states; t++)
+					values[off+t] = semiring.plus(values[off+t], weights.extend(v, c, s, t));
+			}
+		}
+	}
+
+	private void relaxBackward(int cl) {
+		final Adjacency net = this.net;
+		final double[] values = this.values;
+		final int states = this.states, off = cl*states;
+		final double zero = semiring.zero();
+		for(int s = 0; s < states; s++)
+			values[off+s] = zero;
+		int bestCol = -1;
+		for(int e = net.succStart(cl), end = net.succStart(cl+1); e < end; e++) {
+			int c = net.succCol(e), sc = net.colSucc(c);
+			for(int t = 0; t < states; t++) {
+				double v = sc == -1 ? boundary[t] : values[sc*states+t];
+				for(int s = 0; s < states; s++) {
+					double old = values[off+s];
+					values[off+s] = semiring.plus(old, weights.extend(v, c, s, t));
+					if(values[off+s] != old)
+						bestCol = c;
+				}
+			}
+		}
+		if(choice != null)
+			choice[cl] = bestCol;
+	}
+
+	/**
+	 * Computes the values of the successor columns of a class, with {@link #COLUMN_STATES}.
+	 */
+	private void relaxColumnsForward(int cl) {
+		final Adjacency net = this.net;
+		final double[] values = this.values;
+		final double zero = semiring.zero();
+		int predFrom = net.predStart(cl), predTo = net.predStart(cl+1);
+		for(int e = net.succStart(cl), end = net.succStart(cl+1); e < end; e++) {
+			int c = net.succCol(e);
+			double value = zero;
+			for(int f = predFrom; f < predTo; f++) {
+				int p = net.predCol(f);
+				double v = net.colPred(p) == -1 ? boundary[0] : values[p];
+				value = semiring.plus(value, weights.extend(v, c, p, 0));
+			}
+			values[c] = value;
+		}
+	}
+
+	/**
+	 * Computes the values of the predecessor columns of a class, with {@link #COLUMN_STATES}.
+	 */
+	private void relaxColumnsBackward(int cl) {
+		final Adjacency net = this.net;
+		final double[] values = this.values;
+		final double zero = semiring.zero();
+		int succFrom = net.succStart(cl), succTo = net.succStart(cl+1);
+		for(int f = net.predStart(cl), end = net.predStart(cl+1); f < end; f++) {
+			int p = net.predCol(f);
+			double value = zero;
+			for(int e = succFrom; e < succTo; e++) {
+				int c = net.succCol(e);
+				double v = net.colSucc(c) == -1 ? boundary[0] : values[c];
+				value = semiring.plus(value, weights.extend(v, c, p, 0));
+			}
+			values[p] = value;
+		}
+	}
+
+	/**
+	 * Runs the prepared pass level by level, splitting wide levels into chunks
+	 * relaxed in parallel. Narrow levels are relaxed by the calling thread.
+	 */
+	private void run(int[] levelStart, int[] classes, ForkJoinPool pool) {
+		for(int h = 0; h < levelStart.length-1; h++) {
+			int from = levelStart[h], to = levelStart[h+1];
+			if(to-from < GRAIN) {
+				for(int k = from; k < to; k++)
+					relax(classes[k]);
+			} else {
+				pool.invoke(new Relax(classes, from, to));
+			}
+		}
+	}
+
+	/**
+	 * Relaxes a range of the classes of a level, halving it until it is below
+	 * {@link #GRAIN}.
+	 */
+	private class Relax extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] classes;
+		private final int from, to;
+
+		Relax(int[] classes, int from, int to) {
+			this.classes = classes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to-from < GRAIN) {
+				for(int k = from; k < to; k++)
+					relax(classes[k]);
+			} else {
+				int mid = (from+to) >>> 1;
+				invokeAll(new Relax(classes, from, mid), new Relax(classes, mid, to));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,458 @@
+package wvalign;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import wvalign.utils.LongIntHashMap;
+
+/**
+ * Binary snapshot of a built column network, so that the network can be used
+ * again without reading and hashing the samples.
+ *
+ * The file starts with a header of big-endian ints: magic number, format version,
+ * flags, number of sequences, number of samples, number of columns, number of
+ * classes, ids of the first and last dummy columns and the CRC32 checksum of the
+ * preceding header fields. Sections follow in a fixed order, each stored as its
+ * length in bytes as a long, the payload and the CRC32 checksum of the payload:
+ * <ol>
+ * <li>column descriptors in id order</li>
+ * <li>column counts</li>
+ * <li>successor class of each column, -1 for the last dummy column</li>
+ * <li>offsets of the successor lists of the classes</li>
+ * <li>successor lists of the classes</li>
+ * <li>classes in topological order</li>
+ * <li>class whose successor list contains each column, -1 for the first dummy column</li>
+ * <li>sum of the counts of the successor columns of each class</li>
+ * <li>hash table of the columns: <tt>id+1</tt> or 0 in each slot, columns are placed
+ * by linear probing from slot <tt>hash &amp; (slots-1)</tt> where <tt>hash</tt> is the
+ * {@link wvalign.utils.ZobristHash} of the descriptor</li>
+ * <li>column pair frequencies as (first column id, second column id, count) records,
+ * the first id is -1 after all-gap columns (see
+ * {@link ColumnNetwork#pairKey(int, int, boolean)}), empty if not stored</li>
+ * <li>sequence names and sequences, each as its length and its UTF-8 bytes</li>
+ * </ol>
+ * Gap insensitive counts are not stored, they are computed from the column counts.
+ * Payloads are padded to a multiple of four bytes, so every int section is aligned
+ * within the file and can be used directly through a memory mapping (see
+ * {@link MappedNetwork}).
+ */
+class NetworkSnapshot {
+
+	static final int MAGIC = 0x57564144;		// "WVAD"
+	static final int VERSION = 1;
+
+	/** flag: column pair frequencies are stored */
+	static final int PAIR_FREQS = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private CRC32 crc = new CRC32();
+	private DataOutputStream out;
+	private DataInputStream in;
+	private byte[] buf = new byte[1 << 16];
+
+	private NetworkSnapshot() {
+	}
+
+	/**
+	 * @return <code>true</code> if the file starts like a snapshot
+	 */
+	static boolean isSnapshot(String file) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the column network of a DAG that has been built.
+	 */
+	static void write(AlignmentDAG dag, String file) throws IOException {
+		NetworkSnapshot s = new NetworkSnapshot();
+		s.out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(file)), s.crc));
+		try {
+			s.writeNetwork(dag);
+		} finally {
+			s.out.close();
+		}
+	}
+
+	/**
+	 * Reads a snapshot into a DAG that has no alignments yet. Pair frequencies are
+	 * only read if the network keeps them.
+	 */
+	static void read(AlignmentDAG dag, String file) throws IOException {
+		NetworkSnapshot s = new NetworkSnapshot();
+		s.in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), s.crc));
+		try {
+			dag.t = s.readNetwork(dag.columnNetwork, file);
+		} finally {
+			s.in.close();
+		}
+		dag.sequences = null;
+		dag.totalSamples = dag.columnNetwork.n;
+	}
+
+	/**
+	 * Adds the network of a snapshot to the network of a DAG, e.g. to combine the
+	 * networks built from separate MCMC chains. Column counts are summed and classes
+	 * united as if the samples of the snapshot had been added after those already in
+	 * the DAG. The snapshot must hold the same sequences, with the same names and in
+	 * the same order, as the DAG.
+	 */
+	static void merge(AlignmentDAG dag, String file) throws IOException {
+		ColumnNetwork other = dag.columnNetwork.newShard();
+		NetworkSnapshot s = new NetworkSnapshot();
+		s.in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), s.crc));
+		String[][] t;
+		try {
+			t = s.readNetwork(other, file);
+		} finally {
+			s.in.close();
+		}
+		if(t.length != dag.t.length)
+			throw new Error("Snapshot "+file+" has "+t.length+" sequences instead of "+dag.t.length);
+		for(int i = 0; i < t.length; i++) {
+			if(!t[i][0].equals(dag.t[i][0]))
+				throw new Error("Sequence "+(i+1)+" of snapshot "+file+" is "+t[i][0]+" instead of "+dag.t[i][0]);
+			if(!t[i][1].equals(dag.t[i][1]))
+				throw new Error("Sequence "+t[i][0]+" differs in snapshot "+file);
+		}
+		dag.columnNetwork.merge(other);
+		dag.totalSamples = dag.columnNetwork.n;
+	}
+
+	/**
+	 * Writes a network that is not held in memory, e.g. merged from the runs of a
+	 * {@link SpillingBuilder}. The sections are those of {@link FrozenNetwork}, and
+	 * <code>slots</code> is the column hash table.
+	 * 
+	 * @param n number of samples the network was built from
+	 * @param first id of the first dummy column
+	 * @param last id of the last dummy column
+	 * @param descriptors supplies the column descriptors in id order
+	 */
+	static void write(AlignmentDAG dag, int n, int first, int last, int size, Descriptors descriptors,
+			IntSection count, IntSection colSucc, IntSection succStart, IntSection succCols,
+			IntSection order, IntSection colPred, IntSection succFreq, IntSection slots,
+			String file) throws IOException {
+		NetworkSnapshot s = new NetworkSnapshot();
+		s.out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(file)), s.crc));
+		try {
+			s.writeNetwork(dag, n, first, last, size, descriptors, count, colSucc, succStart, succCols,
+					order, colPred, succFreq, slots, null);
+		} finally {
+			s.out.close();
+		}
+	}
+	
+	/**
+	 * Supplies column descriptors one after the other.
+	 */
+	interface Descriptors {
+		void next(int[] dest) throws IOException;
+	}
+
+	/**
+	 * Array of ints written as a section, read block by block.
+	 */
+	interface IntSection {
+		int length();
+
+		/**
+		 * Copies <code>len</code> ints starting at index <code>from</code> into <code>dest</code>.
+		 */
+		void get(int from, int[] dest, int len) throws IOException;
+	}
+
+	private static IntSection section(final int[] data) {
+		return new IntSection() {
+			@Override
+			public int length() {
+				return data.length;
+			}
+
+			@Override
+			public void get(int from, int[] dest, int len) {
+				System.arraycopy(data, from, dest, 0, len);
+			}
+		};
+	}
+
+	private void writeNetwork(AlignmentDAG dag) throws IOException {
+		final ColumnNetwork network = dag.columnNetwork;
+		FrozenNetwork net = network.freeze();
+		int[] hashes = new int[net.numColumns()];
+		for(int c = 0; c < hashes.length; c++)
+			hashes[c] = network.contIndex.hashOf(c);
+		Descriptors descriptors = new Descriptors() {
+			private int next;
+			
+			@Override
+			public void next(int[] dest) {
+				network.contIndex.copy(next++, dest);
+			}
+		};
+		writeNetwork(dag, net.n, net.first, net.last, network.contIndex.width(), descriptors,
+				section(net.count), section(net.colSucc), section(net.succStart), section(net.succCols),
+				section(net.order), section(net.colPred), section(net.succFreq), section(slotTable(hashes)),
+				network.pairFreqs);
+	}
+
+	private void writeNetwork(AlignmentDAG dag, int n, int first, int last, int size, Descriptors descriptors,
+			IntSection count, IntSection colSucc, IntSection succStart, IntSection succCols,
+			IntSection order, IntSection colPred, IntSection succFreq, IntSection slots,
+			LongIntHashMap pairs) throws IOException {
+		int flags = pairs != null ? PAIR_FREQS : 0;
+		int numCols = count.length();
+
+		crc.reset();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(flags);
+		out.writeInt(size);
+		out.writeInt(n);
+		out.writeInt(numCols);
+		out.writeInt(order.length());
+		out.writeInt(first);
+		out.writeInt(last);
+		out.writeInt((int)crc.getValue());
+
+		int[] desc = new int[size];
+		beginSection((long)numCols*size*4);
+		for(int c = 0; c < numCols; c++) {
+			descriptors.next(desc);
+			writeInts(desc, size);
+		}
+		endSection();
+		writeSection(count);
+		writeSection(colSucc);
+		writeSection(succStart);
+		writeSection(succCols);
+		writeSection(order);
+		writeSection(colPred);
+		writeSection(succFreq);
+		writeSection(slots);
+		writePairs(pairs);
+
+		if(dag.sequences == null)
+			dag.updateSequences();
+		byte[][] strings = new byte[2*size][];
+		int len = 0;
+		for(int i = 0; i < size; i++) {
+			strings[2*i] = dag.t[i][0].getBytes(UTF8);
+			strings[2*i+1] = dag.sequences[i].getBytes(UTF8);
+		}
+		for(byte[] str : strings)
+			len += 4+pad(str.length);
+		beginSection(len);
+		for(byte[] str : strings) {
+			out.writeInt(str.length);
+			out.write(str);
+			for(int i = str.length; i < pad(str.length); i++)
+				out.write(0);
+		}
+		endSection();
+	}
+
+	/**
+	 * Reads a snapshot into an empty network.
+	 * 
+	 * @return sequence names and sequences, as the rows of {@link AlignmentDAG#t}
+	 */
+	private String[][] readNetwork(ColumnNetwork network, String file) throws IOException {
+		crc.reset();
+		if(in.readInt() != MAGIC)
+			throw new IOException(file+" is not a network snapshot");
+		int version = in.readInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported snapshot version "+version+" in "+file);
+		int flags = in.readInt(), size = in.readInt(), n = in.readInt();
+		int numCols = in.readInt(), numClasses = in.readInt(), first = in.readInt(), last = in.readInt();
+		checkCrc("header");
+
+		if(network.pairFreqs != null && (flags & PAIR_FREQS) == 0)
+			throw new Error("Snapshot "+file+" has no pair frequencies, it must be created with -twoState");
+
+		int[] descriptors = readSection((long)numCols*size, "descriptors");
+		int[] count = readSection(numCols, "counts");
+		int[] colSucc = readSection(numCols, "successors");
+		int[] succStart = readSection(numClasses+1, "classes");
+		int[] succCols = readSection(succStart[numClasses], "successor lists");
+		readSection(numClasses, "order");
+		readSection(numCols, "predecessors");
+		readSection(numClasses, "class frequencies");
+		readSection(slotCount(numCols), "hash table");
+
+		network.restore(size, descriptors, count, first, last, n);
+		FrozenNetwork net = network.freeze();
+		if(!Arrays.equals(net.colSucc, colSucc) || !Arrays.equals(net.succCols, succCols))
+			throw new IOException("Snapshot "+file+" is inconsistent");
+
+		readPairs(network.pairFreqs);
+
+		String[][] t = new String[size][];
+		beginSection();
+		for(int i = 0; i < size; i++)
+			t[i] = new String[] { readString(), readString() };
+		checkCrc("sequences");
+		return t;
+	}
+
+	/**
+	 * @return number of slots in the hash table of the given number of columns
+	 */
+	static int slotCount(int numCols) {
+		int slots = 16;
+		while(slots < 2*numCols)
+			slots <<= 1;
+		return slots;
+	}
+
+	/**
+	 * Creates the hash table of the columns stored in the snapshot.
+	 * 
+	 * @param hashes hash of the descriptor of each column
+	 */
+	private static int[] slotTable(int[] hashes) {
+		int[] slots = new int[slotCount(hashes.length)];
+		int mask = slots.length-1;
+		for(int id = 0; id < hashes.length; id++) {
+			int pos = hashes[id] & mask;
+			while(slots[pos] != 0)
+				pos = (pos+1) & mask;
+			slots[pos] = id+1;
+		}
+		return slots;
+	}
+
+	/**
+	 * Writes the column pair frequencies as a section of (first id, second id, count)
+	 * records. Nothing is stored for a <code>null</code> map.
+	 */
+	private void writePairs(LongIntHashMap pairs) throws IOException {
+		long[] keys = pairs == null ? new long[0] : pairs.keys();
+		beginSection((long)keys.length*3*4);
+		for(long key : keys) {
+			out.writeLong(key);
+			out.writeInt(pairs.get(key));
+		}
+		endSection();
+	}
+
+	/**
+	 * Reads the column pair frequencies into <code>pairs</code>, the section is skipped
+	 * if <code>pairs</code> is <code>null</code>.
+	 */
+	private void readPairs(LongIntHashMap pairs) throws IOException {
+		long records = beginSection()/(3*4);
+		for(long r = 0; r < records; r++) {
+			long key = in.readLong();
+			int c = in.readInt();
+			if(pairs != null)
+				pairs.put(key, c);
+		}
+		checkCrc("pair frequencies");
+	}
+
+	private void writeSection(IntSection data) throws IOException {
+		int length = data.length();
+		int[] block = new int[Math.min(length, buf.length/4)];
+		beginSection((long)length*4);
+		for(int off = 0; off < length; ) {
+			int len = Math.min(length-off, block.length);
+			data.get(off, block, len);
+			writeInts(block, len);
+			off += len;
+		}
+		endSection();
+	}
+
+	private int[] readSection(long length, String name) throws IOException {
+		long len = beginSection();
+		if(len != length*4)
+			throw new IOException("Wrong length of snapshot section "+name);
+		if(length > Integer.MAX_VALUE)
+			throw new IOException("Snapshot section "+name+" is too large to be read into memory, use -map");
+		int[] data = new int[(int)length];
+		readInts(data, (int)length);
+		checkCrc(name);
+		return data;
+	}
+
+	private void beginSection(long len) throws IOException {
+		out.writeLong(len);
+		crc.reset();
+	}
+
+	private void endSection() throws IOException {
+		out.writeInt((int)crc.getValue());
+	}
+
+	private long beginSection() throws IOException {
+		long len = in.readLong();
+		crc.reset();
+		return len;
+	}
+
+	private void checkCrc(String name) throws IOException {
+		int value = (int)crc.getValue();
+		if(in.readInt() != value)
+			throw new IOException("Checksum error in snapshot section "+name);
+	}
+
+	private void writeInts(int[] data, int length) throws IOException {
+		IntBuffer ib = ByteBuffer.wrap(buf).asIntBuffer();
+		for(int off = 0; off < length; ) {
+			int len = Math.min(length-off, buf.length/4);
+			ib.clear();
+			ib.put(data, off, len);
+			out.write(buf, 0, len*4);
+			off += len;
+		}
+	}
+
+	private void readInts(int[] data, int length) throws IOException {
+		IntBuffer ib = ByteBuffer.wrap(buf).asIntBuffer();
+		for(int off = 0; off < length; ) {
+			int len = Math.min(length-off, buf.length/4);
+			in.readFully(buf, 0, len*4);
+			ib.clear();
+			ib.get(data, off, len);
+			off += len;
+		}
+	}
+
+	private String readString() throws IOException {
+		int len = in.readInt();
+		byte[] str = new byte[pad(len)];
+		in.readFully(str);
+		return new String(str, 0, len, UTF8);
+	}
+
+	/**
+	 * @return length rounded up to a multiple of four
+	 */
+	static int pad(int len) {
+		return (len+3) & ~3;
+	}
+
+}
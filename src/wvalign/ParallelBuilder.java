@@ -0,0 +1,110 @@
+package wvalign;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a column network using several threads.
+ *
+ * Samples are collected into batches. Each batch is cut into contiguous slices, one
+ * per thread, every slice is woven into a separate partial network (shard) and the
+ * shards are merged into the main network in sample order. As merging preserves the
+ * order in which columns are first seen, the result is identical to the network
+ * built sequentially. The next batch is read while the previous one is being built.
+ * Samples repeating the previous sample of the same slice are replayed in the shard.
+ */
+class ParallelBuilder {
+
+	/** number of samples per thread in a batch */
+	private static final int SLICE_SIZE = 64;
+
+	private ColumnNetwork network;
+	private int threads;
+	private ExecutorService executor;
+
+	private List<String[]> batch = new ArrayList<String[]>();
+	private List<Future<ColumnNetwork>> pending = new ArrayList<Future<ColumnNetwork>>();
+
+	ParallelBuilder(ColumnNetwork network, int threads) {
+		this.network = network;
+		this.threads = threads;
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Queues an alignment (as given to {@link AlignmentDAG#addAlignment(String[])}) to be
+	 * added to the network.
+	 */
+	void add(String[] align) {
+		batch.add(align);
+		if(batch.size() == threads*SLICE_SIZE)
+			submitBatch();
+	}
+
+	/**
+	 * Adds all queued alignments to the network, the worker threads are kept for
+	 * further alignments.
+	 */
+	void sync() {
+		submitBatch();
+		mergePending();
+	}
+
+	/**
+	 * Adds all queued alignments to the network and stops the worker threads.
+	 */
+	void finish() {
+		sync();
+		executor.shutdown();
+	}
+
+	private void submitBatch() {
+		mergePending();
+		int size = batch.size();
+		for(int i = 0; i < threads; i++) {
+			final List<String[]> slice = batch.subList(i*size/threads, (i+1)*size/threads);
+			if(slice.isEmpty())
+				continue;
+			pending.add(executor.submit(new Callable<ColumnNetwork>() {
+				@Override
+				public ColumnNetwork call() {
+					ColumnNetwork shard = network.newShard();
+					String[][] t = new String[slice.get(0).length][];
+					RepeatDetector repeats = new RepeatDetector();
+					for(String[] align : slice) {
+						if(repeats.isRepeat(align))
+							shard.repeatLast();
+						else
+							shard.addAlignment(AlignmentDAG.sortAlign(align, t));
+					}
+					return shard;
+				}
+			}));
+		}
+		batch = new ArrayList<String[]>();
+	}
+
+	private void mergePending() {
+		long buildTime = network.buildTime;
+		long time = -System.currentTimeMillis();
+		for(Future<ColumnNetwork> future : pending) {
+			try {
+				network.merge(future.get());
+			} catch (InterruptedException e) {
+				throw new Error("Interrupted while building network");
+			} catch (ExecutionException e) {
+				throw new Error("Error while building network", e.getCause());
+			}
+		}
+		pending.clear();
+		time += System.currentTimeMillis();
+		// building time is the time spent waiting for the workers and merging
+		network.buildTime = buildTime + time;
+	}
+
+}
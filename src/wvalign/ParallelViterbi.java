@@ -0,0 +1,34 @@
+package wvalign;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the Viterbi algorithm of {@link ColumnNetwork#updateViterbi()} using several
+ * threads.
+ *
+ * The backward pass of the {@link NetworkDP} is run level by level (see
+ * {@link FrozenNetwork#levels()}), relaxing the classes of a level in parallel. Every
+ * class is relaxed exactly as in the sequential algorithm, so scores and choices are
+ * identical whatever the number of threads.
+ */
+class ParallelViterbi {
+
+	/** pool the work is distributed on, also used by the other passes over the network */
+	final ForkJoinPool pool;
+
+	ParallelViterbi(int threads) {
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Computes the best path score and successor column choice of every class.
+	 *
+	 * @param dp the Viterbi pass, see {@link ColumnNetwork#updateViterbi()}
+	 * @param choice filled with the selected successor column of each class
+	 * @return score of each class
+	 */
+	double[] run(NetworkDP dp, int[] choice) {
+		return dp.backward(null, choice, pool);
+	}
+
+}
@@ -0,0 +1,91 @@
+package wvalign;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Draws paths through a network from its empirical path distribution, in which each
+ * column is chosen after its predecessor class with probability
+ * <tt>count/succFreq</tt>, as in {@link ColumnNetwork#scoreAlignment(String[], wvalign.utils.MuInt, boolean)}.
+ *
+ * The successor columns of every class get a Walker alias table, built once by
+ * Vose's method in integer arithmetic, so drawing a column takes constant time:
+ * a uniform slot of the class, then either the column of the slot or its alias.
+ * The tables are read only, so paths can be drawn on several threads, each with its
+ * own random generator.
+ */
+class PathSampler {
+
+	private final FrozenNetwork net;
+	/** probability of keeping the column of each slot of the successor lists, indexed as <code>succCols</code> */
+	private final double[] keep;
+	/** column drawn instead of the column of a slot otherwise */
+	private final int[] alias;
+
+	PathSampler(FrozenNetwork net) {
+		this.net = net;
+		int[] succStart = net.succStart, succCols = net.succCols;
+		int numClasses = net.numClasses(), maxDegree = 1;
+		for(int cl = 0; cl < numClasses; cl++)
+			maxDegree = Math.max(maxDegree, succStart[cl+1]-succStart[cl]);
+		keep = new double[succCols.length];
+		alias = new int[succCols.length];
+		// weights scaled by the degree, a slot is full at the sum of the counts
+		long[] scaled = new long[maxDegree];
+		int[] small = new int[maxDegree], large = new int[maxDegree];
+		for(int cl = 0; cl < numClasses; cl++) {
+			int start = succStart[cl], degree = succStart[cl+1]-start;
+			long total = net.succFreq[cl];
+			int numSmall = 0, numLarge = 0;
+			for(int i = 0; i < degree; i++) {
+				scaled[i] = (long)net.count[succCols[start+i]]*degree;
+				if(scaled[i] < total)
+					small[numSmall++] = i;
+				else
+					large[numLarge++] = i;
+			}
+			while(numSmall > 0 && numLarge > 0) {
+				int s = small[--numSmall], l = large[--numLarge];
+				keep[start+s] = (double)scaled[s]/total;
+				alias[start+s] = succCols[start+l];
+				scaled[l] -= total-scaled[s];
+				if(scaled[l] < total)
+					small[numSmall++] = l;
+				else
+					large[numLarge++] = l;
+			}
+			// the scaled weights sum to degree*total, so the slots left over are full
+			while(numLarge > 0)
+				keep[start+large[--numLarge]] = 1;
+			while(numSmall > 0)
+				keep[start+small[--numSmall]] = 1;
+		}
+	}
+
+	/**
+	 * Draws a successor column of a class.
+	 */
+	int drawColumn(int cl, SplittableRandom random) {
+		int start = net.succStart[cl];
+		int e = start+random.nextInt(net.succStart[cl+1]-start);
+		return random.nextDouble() < keep[e] ? net.succCols[e] : alias[e];
+	}
+
+	/**
+	 * Draws a path from the first to the last dummy column.
+	 *
+	 * @return ids of the columns along the path, dummy columns excluded
+	 */
+	int[] draw(SplittableRandom random) {
+		int[] path = new int[16];
+		int len = 0;
+		for(int c = drawColumn(net.firstClass(), random); net.colSucc[c] != -1;
+				c = drawColumn(net.colSucc[c], random)) {
+			if(len == path.length)
+				path = Arrays.copyOf(path, len << 1);
+			path[len++] = c;
+		}
+		return Arrays.copyOf(path, len);
+	}
+
+}
@@ -0,0 +1,153 @@
+package wvalign;
+
+import java.util.Arrays;
+
+/**
+ * Compact, append-only store of the column paths of the alignments added to a
+ * {@link ColumnNetwork}, so that they can be scored without reading the samples again.
+ *
+ * A path is a sequence of column ids, an id is complemented if the column follows
+ * all-gap columns in the alignment. Each path is stored as its length plus one and,
+ * for every column, the difference to the previous id (zigzag encoded, shifted left
+ * by one, with the all-gap flag in the lowest bit) as a variable length integer of
+ * 7 bits per byte. A path repeating the previous path is stored as a single 0.
+ */
+class PathStore {
+
+	private byte[] data = new byte[1 << 12];
+	private int length;		// number of bytes used
+	private int size;		// number of paths
+
+	/**
+	 * @return number of paths in the store
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Appends a path.
+	 *
+	 * @param path column ids, complemented after all-gap columns
+	 * @param len number of columns in the path
+	 */
+	void add(int[] path, int len) {
+		writeVarint(len+1);
+		int prev = 0;
+		for(int k = 0; k < len; k++) {
+			int id = path[k];
+			int gap = 0;
+			if(id < 0) {
+				id = ~id;
+				gap = 1;
+			}
+			long delta = (long)id-prev;
+			writeVarint(((delta << 1) ^ (delta >> 63)) << 1 | gap);
+			prev = id;
+		}
+		size++;
+	}
+
+	/**
+	 * Appends a path that equals the last path added.
+	 */
+	void addRepeat() {
+		if(size == 0)
+			throw new Error("No path to repeat");
+		writeVarint(0);
+		size++;
+	}
+
+	/**
+	 * Appends the paths of another store, with the column ids translated.
+	 *
+	 * @param other the store to append
+	 * @param ids new id of each column id used in <code>other</code>
+	 */
+	void addAll(PathStore other, int[] ids) {
+		Reader reader = other.reader();
+		for(int p = 0; p < other.size; p++) {
+			int len = reader.next();
+			if(reader.repeated) {
+				addRepeat();
+				continue;
+			}
+			int[] path = reader.path;
+			for(int k = 0; k < len; k++)
+				path[k] = path[k] < 0 ? ~ids[~path[k]] : ids[path[k]];
+			add(path, len);
+		}
+	}
+
+	/**
+	 * Releases spare capacity.
+	 */
+	void trimToSize() {
+		data = Arrays.copyOf(data, length);
+	}
+
+	/**
+	 * @return reader returning the paths in the order they were added
+	 */
+	Reader reader() {
+		return new Reader();
+	}
+
+	private void writeVarint(long value) {
+		if(length+10 > data.length)
+			data = Arrays.copyOf(data, 2*data.length+16);
+		while((value & ~0x7f) != 0) {
+			data[length++] = (byte)(value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		data[length++] = (byte)value;
+	}
+
+	/**
+	 * Decodes the paths of the store one after the other.
+	 */
+	class Reader {
+		/** the last path read, valid up to the length returned by {@link #next()} */
+		int[] path = new int[16];
+		/** <code>true</code> if the last path read repeats the path before it */
+		boolean repeated;
+
+		private int pos;
+		private int len;
+
+		/**
+		 * Reads the next path into {@link #path}.
+		 *
+		 * @return number of columns in the path
+		 */
+		int next() {
+			int code = (int)readVarint();
+			repeated = code == 0;
+			if(repeated)
+				return len;
+			len = code-1;
+			if(path.length < len)
+				path = new int[Math.max(len, 2*path.length)];
+			int prev = 0;
+			for(int k = 0; k < len; k++) {
+				long value = readVarint();
+				long zigzag = value >>> 1;
+				int id = prev + (int)((zigzag >>> 1) ^ -(zigzag & 1));
+				path[k] = (value & 1) == 1 ? ~id : id;
+				prev = id;
+			}
+			return len;
+		}
+
+		private long readVarint() {
+			long value = 0;
+			for(int shift = 0; ; shift += 7) {
+				byte b = data[pos++];
+				value |= (long)(b & 0x7f) << shift;
+				if(b >= 0)
+					return value;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package wvalign;
+
+import java.util.Arrays;
+
+/**
+ * Recognises samples that are identical to the previous sample, as MCMC samplers
+ * often produce long runs of them when moves are rejected.
+ *
+ * Each sample is fingerprinted from the hash codes of its rows (as read, before they
+ * are split and sorted), only samples with the fingerprint of the previous one are
+ * compared row by row. A repeated sample can be added to the network by
+ * {@link ColumnNetwork#repeatLast()}, without building its columns again.
+ */
+class RepeatDetector {
+
+	private String[] last;
+	private long lastFingerprint;
+
+	/**
+	 * Checks whether a sample equals the previous sample given to this method.
+	 *
+	 * @param align rows of the alignment as given to {@link AlignmentDAG#addAlignment(String[])}
+	 * @return <code>true</code> if the sample is a repeat of the previous one
+	 */
+	boolean isRepeat(String[] align) {
+		long fingerprint = fingerprint(align);
+		boolean repeat = last != null && fingerprint == lastFingerprint && Arrays.equals(align, last);
+		last = align;
+		lastFingerprint = fingerprint;
+		return repeat;
+	}
+
+	static long fingerprint(String[] align) {
+		long h = align.length;
+		for(String row : align)
+			h = h * 0x9e3779b97f4a7c15L + row.hashCode();
+		return h;
+	}
+
+}
@@ -0,0 +1,640 @@
+package wvalign;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import wvalign.utils.IntTupleIndex;
+import wvalign.utils.LongIntHashMap;
+import wvalign.utils.ZobristHash;
+
+/**
+ * Builds a column network in external memory, for networks whose column table does
+ * not fit the heap.
+ *
+ * Columns are counted in a table that only holds their descriptors, counts and the
+ * position where each was first seen (sample index and column). When the table
+ * reaches its memory budget, it is spilled to disk as runs, hash-partitioned by
+ * descriptor into {@link #PARTITIONS} files, and cleared. Once all samples are read,
+ * the runs of each partition are merged into distinct columns and sorted by first
+ * occurrence. Merging the partitions in that order yields the columns in the order
+ * a {@link ColumnNetwork} would create them, so the network is identical to one
+ * built in memory. It is written as a snapshot (see {@link NetworkSnapshot}) to be
+ * used through a memory mapping.
+ *
+ * The classes are resolved the same way. The merged columns are read once in id
+ * order, writing their counts and the column hash table to memory mapped files
+ * (see {@link MappedInts}) and the keys of their predecessor and successor classes,
+ * hash-partitioned, to key files. Each key partition assigns local ids to its
+ * classes, and the partitions, sorted by the column that creates each class, are
+ * merged into the class ids a {@link ColumnNetwork} would give. The successor and
+ * predecessor classes, the successor lists and the topological order are then
+ * built in mapped files and streamed into the snapshot.
+ *
+ * The budget bounds the table while counting columns, and a partition of the
+ * columns or of the class keys must fit in it when it is merged, so networks of
+ * about {@link #PARTITIONS} times the budget can be built. Otherwise the heap only
+ * holds a histogram of the key sums, one int per residue of all sequences. The
+ * mapped files take about a dozen ints per column on disk, and in the page cache
+ * as far as the operating system keeps them there.
+ */
+class SpillingBuilder {
+
+	/** number of partitions, must be a power of two */
+	static final int PARTITIONS = 64;
+	private static final int PARTITION_BITS = 6;
+
+	private File dir;			// directory of the run files
+	private long budget;		// max. bytes used by the table
+
+	private int size;			// number of sequences
+	private int samples;		// number of alignments added
+	private int firstLength;	// length of the first alignment, to locate the last dummy column
+	private ZobristHash zobrist;
+	private int[] firstDescriptor, lastDescriptor, descBuffer;
+
+	private IntTupleIndex table;
+	private int[] counts;
+	private long[] firsts;		// first occurrence of each column: sample index << 32 | column+1
+
+	int spills;					// number of times the table was spilled
+	long spilledColumns;		// number of column records written to runs
+	long buildTime;
+
+	/**
+	 * @param dir directory for the run files, a subdirectory is created in it
+	 * @param budget number of bytes the table of columns may use
+	 */
+	SpillingBuilder(File dir, long budget) throws IOException {
+		dir.mkdirs();
+		this.dir = File.createTempFile("spill", "", dir);
+		if(!this.dir.delete() || !this.dir.mkdir())
+			throw new IOException("Cannot create directory for run files in "+dir);
+		this.budget = budget;
+	}
+
+	/**
+	 * Counts the columns of an alignment.
+	 *
+	 * @param align alignment as a string array, rows sorted by sequence name
+	 */
+	void addAlignment(String[] align) {
+		int len = align[0].length(), i, j, d, nd;
+
+		buildTime -= System.currentTimeMillis();
+		if(samples == 0) {
+			size = align.length;
+			firstLength = len;
+			zobrist = new ZobristHash(size);
+			firstDescriptor = new int[size];
+			Arrays.fill(firstDescriptor, -1);
+			descBuffer = new int[size];
+			newTable();
+		}
+
+		int[] descriptor = descBuffer;
+		System.arraycopy(firstDescriptor, 0, descriptor, 0, size);
+		int hash = zobrist.hash(descriptor);
+		boolean allGap;
+		for(j = 0; j < len; j++) {
+			allGap = true;
+			for(i = 0; i < size; i++){
+				nd = d = descriptor[i];
+				nd += d & 1;
+				if(align[i].charAt(j) != '-') {
+					nd++;
+					allGap = false;
+				}
+				if(nd != d) {
+					hash = zobrist.update(hash, i, d, nd);
+					descriptor[i] = nd;
+				}
+			}
+			if(!allGap)
+				count(descriptor, hash, (long)samples << 32 | (j+1), 1);
+		}
+
+		if(samples == 0) {
+			lastDescriptor = descriptor.clone();
+			for(i = 0; i < size; i++)
+				lastDescriptor[i] += (lastDescriptor[i] & 1) + 1;
+		}
+		samples++;
+
+		// the descriptor arena may be copied while growing, hence counted twice
+		if(table.size()*(8L*size+40) > budget) {
+			try {
+				spill();
+			} catch (IOException e) {
+				throw new Error("Cannot write run files to "+dir, e);
+			}
+		}
+		buildTime += System.currentTimeMillis();
+	}
+
+	private void newTable() {
+		table = new IntTupleIndex(size);
+		counts = new int[1024];
+		firsts = new long[1024];
+	}
+
+	private void count(int[] descriptor, int hash, long first, int count) {
+		int id = table.find(descriptor, hash);
+		if(id == -1) {
+			id = table.insert(descriptor, hash);
+			if(id == counts.length) {
+				counts = Arrays.copyOf(counts, 2*id);
+				firsts = Arrays.copyOf(firsts, 2*id);
+			}
+			counts[id] = count;
+			firsts[id] = first;
+		} else {
+			counts[id] += count;
+			if(first < firsts[id])
+				firsts[id] = first;
+		}
+	}
+
+	private static int partition(int hash) {
+		return (hash * 0x9e3779b9) >>> (32-PARTITION_BITS);
+	}
+
+	private File runFile(int p) {
+		return new File(dir, "run."+p);
+	}
+
+	private File sortedFile(int p) {
+		return new File(dir, "sorted."+p);
+	}
+
+	/**
+	 * Appends the columns of the table to the run files of their partitions and
+	 * clears the table.
+	 */
+	private void spill() throws IOException {
+		DataOutputStream[] out = new DataOutputStream[PARTITIONS];
+		try {
+			for(int p = 0; p < PARTITIONS; p++)
+				out[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile(p), true)));
+			int[] desc = descBuffer;
+			for(int id = 0; id < table.size(); id++) {
+				DataOutputStream o = out[partition(table.hashOf(id))];
+				table.copy(id, desc);
+				o.writeLong(firsts[id]);
+				o.writeInt(counts[id]);
+				for(int i = 0; i < size; i++)
+					o.writeInt(desc[i]);
+			}
+		} finally {
+			for(DataOutputStream o : out)
+				if(o != null)
+					o.close();
+		}
+		spills++;
+		spilledColumns += table.size();
+		newTable();
+	}
+
+	/**
+	 * Merges the runs of a partition into distinct columns and writes them sorted by
+	 * first occurrence.
+	 *
+	 * @return number of distinct columns in the partition
+	 */
+	private int mergeRuns(int p) throws IOException {
+		File run = runFile(p);
+		int records = (int)(run.length()/(12+4*size));
+		int[] desc = descBuffer;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+		try {
+			for(int r = 0; r < records; r++) {
+				long first = in.readLong();
+				int count = in.readInt();
+				for(int i = 0; i < size; i++)
+					desc[i] = in.readInt();
+				count(desc, zobrist.hash(desc), first, count);
+			}
+		} finally {
+			in.close();
+		}
+		run.delete();
+
+		// first occurrences are unique, each column of a sample is a single column
+		int cols = table.size();
+		long[] sorted = Arrays.copyOf(firsts, cols);
+		Arrays.sort(sorted);
+		LongIntHashMap ids = new LongIntHashMap();
+		for(int id = 0; id < cols; id++)
+			ids.put(firsts[id], id+1);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sortedFile(p))));
+		try {
+			for(int k = 0; k < cols; k++) {
+				int id = ids.get(sorted[k])-1;
+				table.copy(id, desc);
+				out.writeLong(firsts[id]);
+				out.writeInt(counts[id]);
+				for(int i = 0; i < size; i++)
+					out.writeInt(desc[i]);
+			}
+		} finally {
+			out.close();
+		}
+		newTable();
+		return cols;
+	}
+
+	/**
+	 * Merges all runs into the network and writes it as a snapshot. No alignments
+	 * can be added afterwards.
+	 */
+	void writeSnapshot(AlignmentDAG dag, String file) throws IOException {
+		if(samples == 0)
+			throw new Error("No samples found.");
+		buildTime -= System.currentTimeMillis();
+
+		// dummy columns are counted once per sample
+		count(firstDescriptor, zobrist.hash(firstDescriptor), 0, samples);
+		count(lastDescriptor, zobrist.hash(lastDescriptor), firstLength+1, samples);
+		spill();
+		int[] partitionSize = new int[PARTITIONS];
+		int numCols = 0;
+		for(int p = 0; p < PARTITIONS; p++)
+			numCols += partitionSize[p] = mergeRuns(p);
+		table = null;
+
+		// counts and hash table of the columns, keys of their classes to the key files
+		MappedInts count = new MappedInts(new File(dir, "count"), numCols);
+		MappedInts slots = new MappedInts(new File(dir, "slots"), NetworkSnapshot.slotCount(numCols));
+		int mask = slots.length()-1;
+		int[] desc = descBuffer, key = new int[size];
+		int first = -1, last = -1;
+		DataOutputStream[] keys = new DataOutputStream[PARTITIONS];
+		RunMerger merger = new RunMerger(partitionSize);
+		try {
+			for(int p = 0; p < PARTITIONS; p++)
+				keys[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file("keys", p))));
+			for(int c = 0; c < numCols; c++) {
+				merger.next(desc);
+				count.set(c, merger.count);
+				int pos = zobrist.hash(desc) & mask;
+				while(slots.get(pos) != 0)
+					pos = (pos+1) & mask;
+				slots.set(pos, c+1);
+				if(merger.first == 0)
+					first = c;
+				else if(merger.first == firstLength+1)
+					last = c;
+
+				if(c != first) {
+					for(int i = 0; i < size; i++)
+						key[i] = desc[i] >> 1;
+					writeKey(keys, key, ~c);
+				}
+				if(c != last) {
+					for(int i = 0; i < size; i++)
+						key[i] = (desc[i]+1) >> 1;
+					writeKey(keys, key, c);
+				}
+			}
+		} finally {
+			merger.close();
+			for(DataOutputStream o : keys)
+				if(o != null)
+					o.close();
+		}
+
+		// assign the column classes in order of creation, as ColumnNetwork does
+		int[] partitionClasses = new int[PARTITIONS];
+		int numClasses = 0;
+		for(int p = 0; p < PARTITIONS; p++)
+			numClasses += partitionClasses[p] = resolveKeys(p);
+		MappedInts classSum = new MappedInts(new File(dir, "sums"), numClasses);
+		numberClasses(partitionClasses, classSum);
+		MappedInts colSucc = new MappedInts(new File(dir, "succ"), numCols);
+		MappedInts colPred = new MappedInts(new File(dir, "pred"), numCols);
+		for(int p = 0; p < PARTITIONS; p++)
+			linkClasses(p, partitionClasses[p], colSucc, colPred);
+		colPred.set(first, -1);
+		colSucc.set(last, -1);
+
+		// successor lists, succStart holds the end of each list while filling it
+		MappedInts succStart = new MappedInts(new File(dir, "start"), numClasses+1);
+		MappedInts succFreq = new MappedInts(new File(dir, "freq"), numClasses);
+		for(int c = 0; c < numCols; c++) {
+			int cl = colPred.get(c);
+			if(cl != -1) {
+				succStart.set(cl+1, succStart.get(cl+1)+1);
+				succFreq.set(cl, succFreq.get(cl)+count.get(c));
+			}
+		}
+		for(int cl = 0; cl < numClasses; cl++)
+			succStart.set(cl+1, succStart.get(cl+1)+succStart.get(cl));
+		MappedInts succCols = new MappedInts(new File(dir, "lists"), succStart.get(numClasses));
+		for(int c = 0; c < numCols; c++) {
+			int cl = colPred.get(c);
+			if(cl != -1) {
+				int pos = succStart.get(cl);
+				succCols.set(pos, c);
+				succStart.set(cl, pos+1);
+			}
+		}
+		for(int cl = numClasses; cl > 0; cl--)
+			succStart.set(cl, succStart.get(cl-1));
+		succStart.set(0, 0);
+
+		// topological order as in ColumnNetwork.topologicalOrder(), by key sum then id
+		int maxSum = 0;
+		for(int cl = 0; cl < numClasses; cl++)
+			maxSum = Math.max(maxSum, classSum.get(cl));
+		int[] sumStart = new int[maxSum+2];
+		for(int cl = 0; cl < numClasses; cl++)
+			sumStart[classSum.get(cl)+1]++;
+		for(int sum = 0; sum <= maxSum; sum++)
+			sumStart[sum+1] += sumStart[sum];
+		MappedInts order = new MappedInts(new File(dir, "order"), numClasses);
+		for(int cl = 0; cl < numClasses; cl++)
+			order.set(sumStart[classSum.get(cl)]++, cl);
+		sumStart = null;
+
+		merger = new RunMerger(partitionSize);
+		try {
+			NetworkSnapshot.write(dag, samples, first, last, size, merger, count, colSucc, succStart,
+					succCols, order, colPred, succFreq, slots, file);
+		} finally {
+			merger.close();
+		}
+		for(int p = 0; p < PARTITIONS; p++)
+			sortedFile(p).delete();
+		for(MappedInts ints : new MappedInts[] { count, slots, classSum, colSucc, colPred, succStart,
+				succFreq, succCols, order })
+			ints.delete();
+		dir.delete();
+
+		buildTime += System.currentTimeMillis();
+	}
+
+	private File file(String kind, int p) {
+		return new File(dir, kind+"."+p);
+	}
+
+	/**
+	 * Appends a class key to the key file of its partition.
+	 *
+	 * @param ref id of the column the key is the successor class of, or the complement
+	 *  of the id of the column it is the predecessor class of
+	 */
+	private void writeKey(DataOutputStream[] keys, int[] key, int ref) throws IOException {
+		DataOutputStream o = keys[partition(zobrist.hash(key))];
+		o.writeInt(ref);
+		for(int i = 0; i < size; i++)
+			o.writeInt(key[i]);
+	}
+
+	/**
+	 * Assigns partition local ids to the distinct class keys of a partition. Writes
+	 * each reference of the key file with the local id of its class, and the classes
+	 * sorted by the column that creates them, the first column whose successor class
+	 * they are.
+	 *
+	 * @return number of classes in the partition
+	 */
+	private int resolveKeys(int p) throws IOException {
+		File keyFile = file("keys", p);
+		long records = keyFile.length()/(4+4*size);
+		IntTupleIndex index = new IntTupleIndex(size);
+		int[] creator = new int[1024], sums = new int[1024];
+		int[] key = new int[size];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(keyFile)));
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file("refs", p))));
+			for(long r = 0; r < records; r++) {
+				int ref = in.readInt();
+				for(int i = 0; i < size; i++)
+					key[i] = in.readInt();
+				int hash = zobrist.hash(key);
+				int cl = index.find(key, hash);
+				if(cl == -1) {
+					cl = index.insert(key, hash);
+					if(cl == creator.length) {
+						creator = Arrays.copyOf(creator, 2*cl);
+						sums = Arrays.copyOf(sums, 2*cl);
+					}
+					creator[cl] = Integer.MAX_VALUE;
+					int sum = 0;
+					for(int i = 0; i < size; i++)
+						sum += key[i];
+					sums[cl] = sum;
+				}
+				if(ref >= 0 && ref < creator[cl])
+					creator[cl] = ref;
+				out.writeInt(ref);
+				out.writeInt(cl);
+			}
+		} finally {
+			in.close();
+			if(out != null)
+				out.close();
+		}
+		keyFile.delete();
+
+		int classes = index.size();
+		long[] sorted = new long[classes];
+		for(int cl = 0; cl < classes; cl++) {
+			if(creator[cl] == Integer.MAX_VALUE)
+				throw new IOException("Predecessor class of column not found");
+			sorted[cl] = (long)creator[cl] << 32 | cl;
+		}
+		Arrays.sort(sorted);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file("classes", p))));
+		try {
+			for(int k = 0; k < classes; k++) {
+				int cl = (int)sorted[k];
+				out.writeInt(creator[cl]);
+				out.writeInt(cl);
+				out.writeInt(sums[cl]);
+			}
+		} finally {
+			out.close();
+		}
+		return classes;
+	}
+
+	/**
+	 * Numbers the classes of all partitions in order of creation by merging their
+	 * sorted class files, and writes the pairs (local id, id) of each partition.
+	 *
+	 * @param classSum receives the sum of the key of each class
+	 */
+	private void numberClasses(int[] partitionClasses, MappedInts classSum) throws IOException {
+		PriorityQueue<ClassRun> queue = new PriorityQueue<ClassRun>(PARTITIONS, new Comparator<ClassRun>() {
+			@Override
+			public int compare(ClassRun r1, ClassRun r2) {
+				return r1.creator < r2.creator ? -1 : r1.creator > r2.creator ? 1 : 0;
+			}
+		});
+		ClassRun[] runs = new ClassRun[PARTITIONS];
+		DataOutputStream[] ids = new DataOutputStream[PARTITIONS];
+		try {
+			for(int p = 0; p < PARTITIONS; p++) {
+				runs[p] = new ClassRun(p, partitionClasses[p]);
+				ids[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file("ids", p))));
+				if(runs[p].advance())
+					queue.add(runs[p]);
+			}
+			for(int cl = 0; !queue.isEmpty(); cl++) {
+				ClassRun run = queue.poll();
+				classSum.set(cl, run.sum);
+				ids[run.partition].writeInt(run.local);
+				ids[run.partition].writeInt(cl);
+				if(run.advance())
+					queue.add(run);
+			}
+		} finally {
+			for(int p = 0; p < PARTITIONS; p++) {
+				if(runs[p] != null)
+					runs[p].in.close();
+				if(ids[p] != null)
+					ids[p].close();
+			}
+		}
+		for(int p = 0; p < PARTITIONS; p++)
+			file("classes", p).delete();
+	}
+
+	/**
+	 * Sets the successor and predecessor classes of the columns referring to the
+	 * classes of a partition.
+	 */
+	private void linkClasses(int p, int classes, MappedInts colSucc, MappedInts colPred) throws IOException {
+		int[] id = new int[classes];
+		File idFile = file("ids", p), refFile = file("refs", p);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idFile)));
+		try {
+			for(int k = 0; k < classes; k++) {
+				int local = in.readInt();
+				id[local] = in.readInt();
+			}
+		} finally {
+			in.close();
+		}
+		long records = refFile.length()/8;
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(refFile)));
+		try {
+			for(long r = 0; r < records; r++) {
+				int ref = in.readInt(), cl = id[in.readInt()];
+				if(ref >= 0)
+					colSucc.set(ref, cl);
+				else
+					colPred.set(~ref, cl);
+			}
+		} finally {
+			in.close();
+		}
+		idFile.delete();
+		refFile.delete();
+	}
+
+	/**
+	 * Merges the sorted partitions, returning the columns in order of first occurrence.
+	 */
+	private class RunMerger implements NetworkSnapshot.Descriptors {
+		private PriorityQueue<Run> queue = new PriorityQueue<Run>(PARTITIONS, new Comparator<Run>() {
+			@Override
+			public int compare(Run r1, Run r2) {
+				return r1.first < r2.first ? -1 : r1.first > r2.first ? 1 : 0;
+			}
+		});
+		private Run[] runs;
+
+		long first;		// first occurrence of the last column returned
+		int count;		// count of the last column returned
+
+		RunMerger(int[] partitionSize) throws IOException {
+			runs = new Run[PARTITIONS];
+			for(int p = 0; p < PARTITIONS; p++) {
+				runs[p] = new Run(sortedFile(p), partitionSize[p]);
+				if(runs[p].advance())
+					queue.add(runs[p]);
+			}
+		}
+
+		@Override
+		public void next(int[] dest) throws IOException {
+			Run run = queue.poll();
+			first = run.first;
+			count = run.count;
+			System.arraycopy(run.desc, 0, dest, 0, size);
+			if(run.advance())
+				queue.add(run);
+		}
+
+		void close() throws IOException {
+			for(Run run : runs)
+				if(run != null)
+					run.in.close();
+		}
+	}
+
+	/**
+	 * Reads the columns of a sorted partition one after the other.
+	 */
+	private class Run {
+		DataInputStream in;
+		int remaining;
+		long first;
+		int count;
+		int[] desc = new int[size];
+
+		Run(File file, int columns) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			remaining = columns;
+		}
+
+		boolean advance() throws IOException {
+			if(remaining == 0)
+				return false;
+			remaining--;
+			first = in.readLong();
+			count = in.readInt();
+			for(int i = 0; i < size; i++)
+				desc[i] = in.readInt();
+			return true;
+		}
+	}
+
+	/**
+	 * Reads the sorted classes of a partition one after the other.
+	 */
+	private class ClassRun {
+		int partition;
+		DataInputStream in;
+		int remaining;
+		int creator, local, sum;
+
+		ClassRun(int p, int classes) throws IOException {
+			partition = p;
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file("classes", p))));
+			remaining = classes;
+		}
+
+		boolean advance() throws IOException {
+			if(remaining == 0)
+				return false;
+			remaining--;
+			creator = in.readInt();
+			local = in.readInt();
+			sum = in.readInt();
+			return true;
+		}
+	}
+
+}
@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -35,13 +36,17 @@ public class WeaveMain {
 	private static final String DEF_FASTA_EXTENSION = ".fsa";
 	private static final String DEF_ANNOT_EXTENSION = ".pred";
 	private static final String DEF_SCORE_EXTENSION = ".scr";
+	private static final String DEF_BOOTSTRAP_EXTENSION = ".boot";
+	private static final String DEF_KBEST_EXTENSION = ".kbest";
+	private static final String DEF_DRAW_EXTENSION = ".draw";
 	
 	private static final String USAGE =
 		"WeaveAlign "+WVALIGN_VERSION+" (C) Adam Novak, Joe Herman 2010-15.\n\n"
 		+
 		"Usage:\n\n" +
 		"    java -jar WeaveAlign.jar [options] input_1.fsa input_2.fsa [input_3.fsa...]\n" +
-		"    java -jar WeaveAlign.jar [options] input_1.log\n\n" +
+		"    java -jar WeaveAlign.jar [options] input_1.log\n" +
+		"    java -jar WeaveAlign.jar [options] network.dag [network_2.dag...] [samples.log]\n\n" +
 		"Description:\n\n" +
 		"    Generates a summary alignment from a collection of alignments using the\n" +
 		"    minimum risk (MinRisk) strategy. Alignments may be given in FASTA format\n" +
@@ -83,6 +88,89 @@ public class WeaveMain {
 		"        Begin sampling only at sample FIRSTSAMP, to allow for the beginning as burn-in.\n"+
 		"        Default: 0\n\n"
 		+
+		"    -threads=N\n"+
+		"        Builds the DAG and computes the summary alignment using N threads. The\n"+
+		"        results are identical to those of a single thread. Default: 1\n\n"
+		+
+		"    -every=K\n"+
+		"        Writes an interim summary alignment and scores after every K samples,\n"+
+		"        to the output files extended with the number of samples used so far,\n"+
+		"        and reports how many of its columns are new since the previous one.\n"+
+		"        Default: only the final summary is written\n\n"
+		+
+		"    -bootstrap=B\n"+
+		"        Computes the bootstrap support of each column of the summary alignment,\n"+
+		"        the fraction of B replicates (samples drawn with replacement) whose\n"+
+		"        summary contains the column. Written one value per line, as the column\n"+
+		"        scores, to output"+DEF_BOOTSTRAP_EXTENSION+". Replicates reweight the column counts of the\n"+
+		"        DAG instead of building it again, and run on the threads of -threads.\n\n"
+		+
+		"    -gSweep=A:B:STEP\n"+
+		"        Also computes the summary alignment for each g value from A to B in steps\n"+
+		"        of STEP from the same DAG, written to the output files extended with .g\n"+
+		"        and the value. The values are processed on the threads of -threads.\n\n"
+		+
+		"    -pathMarginals\n"+
+		"        Scores the columns by their probability under the path distribution of\n"+
+		"        the DAG, in which each column follows the previous one with probability\n"+
+		"        proportional to its count, instead of the fraction of samples holding\n"+
+		"        them. Used for the MinRisk summary and written as the column scores.\n"+
+		"        The two only differ once -minCount has removed columns from the DAG.\n\n"
+		+
+		"    -kbest=K\n"+
+		"        Writes the K best alignments of the DAG by MinRisk score, the summary\n"+
+		"        alignment first, to output"+DEF_KBEST_EXTENSION+". Each alignment is preceded by a line\n"+
+		"        #rank<tab>score. Alternative alignments are derived lazily from the\n"+
+		"        Viterbi scores, without enumerating the paths of the DAG.\n\n"
+		+
+		"    -draw=N\n"+
+		"        Draws N alignments from the DAG, choosing each column after the previous\n"+
+		"        one with probability proportional to its count, and writes them as a\n"+
+		"        StatAlign log to output"+DEF_DRAW_EXTENSION+".log, which can be read as input again.\n"+
+		"        Alignments are drawn on the threads of -threads, the result only depends\n"+
+		"        on the seed.\n\n"
+		+
+		"    -drawFasta\n"+
+		"        Writes the alignments of -draw in FASTA format, separated by empty lines,\n"+
+		"        to output"+DEF_DRAW_EXTENSION+DEF_FASTA_EXTENSION+" instead.\n\n"
+		+
+		"    -seed=S\n"+
+		"        Seed of the random generator of -draw. Default: 1\n\n"
+		+
+		"    -window=W\n"+
+		"        Keeps only the last W samples in the DAG, removing older samples as new\n"+
+		"        ones are read, so that the summary (and the interim summaries of -every)\n"+
+		"        reflects the most recent part of the chain. Default: all samples are kept\n\n"
+		+
+		"    -minCount=K|auto\n"+
+		"        Removes the columns seen fewer than K times from the DAG once it has been\n"+
+		"        built, with the columns that are no longer on a path through the DAG, and\n"+
+		"        reports the share of the path mass discarded: the probability that a path\n"+
+		"        drawn from the DAG uses a removed column. With auto, K is chosen so that\n"+
+		"        the DAG is estimated to take at most half of the heap.\n"+
+		"        Default: no pruning\n\n"
+		+
+		"    -save network.dag\n"+
+		"        Saves the DAG into a binary snapshot file once it has been built. The\n"+
+		"        snapshot can be given instead of the input files later, so that the\n"+
+		"        samples are not read again (samples to score with -post must follow it).\n"+
+		"        To load it with -twoState, it must be saved with -twoState. Several\n"+
+		"        snapshots given one after the other, e.g. from separate MCMC chains of\n"+
+		"        the same sequences, are merged into a single DAG.\n\n"
+		+
+		"    -spill DIR\n"+
+		"        Builds the DAG in external memory, for DAGs that do not fit the heap.\n"+
+		"        Columns are spilled to run files in DIR when they take a quarter of the\n"+
+		"        heap, the runs are merged into a snapshot (the file given by -save or a\n"+
+		"        temporary one) that is used through a memory mapping as with -map.\n"+
+		"        The structure of the network is kept in memory mapped files in DIR.\n\n"
+		+
+		"    -map\n"+
+		"        Uses a DAG snapshot given as input through a memory mapping, without\n"+
+		"        loading it into memory, for DAGs that do not fit the heap. Supports the\n"+
+		"        summary alignment, -post and -nPaths, without -optgi, -outgi, -twoState\n"+
+		"        and annotation.\n\n"
+		+
 		"    -mpdout\n"+
 		"        Instead of separate FASTA and scores files, creates a single MPD file\n" +
 		"        that contains both. Default name is input_1.ext"+DEF_MPD_EXTENSION+"\n\n"
@@ -188,6 +276,20 @@ public class WeaveMain {
 				.addOption("n", Separator.EQUALS)
 				.addOption("r", Separator.EQUALS)
 				.addOption("f", Separator.EQUALS)	
+				.addOption("threads", Separator.EQUALS)
+				.addOption("every", Separator.EQUALS)
+				.addOption("window", Separator.EQUALS)
+				.addOption("bootstrap", Separator.EQUALS)
+				.addOption("kbest", Separator.EQUALS)
+				.addOption("pathMarginals")
+				.addOption("gSweep", Separator.EQUALS)
+				.addOption("draw", Separator.EQUALS)
+				.addOption("drawFasta")
+				.addOption("seed", Separator.EQUALS)
+				.addOption("minCount", Separator.EQUALS)
+				.addOption("save", Separator.BLANK)
+				.addOption("spill", Separator.BLANK)
+				.addOption("map")
 				.addOption("post")
 				.addOption("twoState")
 				.addOption("nPaths")				
@@ -270,6 +372,136 @@ public class WeaveMain {
 				int value = Integer.parseInt(set.getOption("f").getResultValue(0));
 				dagIf.setFirstSample(value);
 			}
+			if(set.isSet("threads")) {
+				int value = Integer.parseInt(set.getOption("threads").getResultValue(0));
+				if(value < 1)
+					error("number of threads must be positive: "+value);
+				dagIf.setThreads(value);
+			}
+			if(set.isSet("every")) {
+				int value = Integer.parseInt(set.getOption("every").getResultValue(0));
+				if(value < 1)
+					error("interim summary rate must be positive: "+value);
+				dagIf.setInterimRate(value);
+			}
+			if(set.isSet("window")) {
+				int value = Integer.parseInt(set.getOption("window").getResultValue(0));
+				if(value < 1)
+					error("window size must be positive: "+value);
+				if(set.isSet("threads") || set.isSet("spill") || set.isSet("post") || set.isSet("minCount")
+						|| set.isSet("map"))
+					error("-window cannot be used with -threads, -spill, -post, -minCount or -map");
+				if(NetworkSnapshot.isSnapshot(input0))
+					error("-window requires samples as input, not a DAG snapshot");
+				dagIf.setWindow(value);
+			}
+			if(set.isSet("bootstrap")) {
+				int value = Integer.parseInt(set.getOption("bootstrap").getResultValue(0));
+				if(value < 1)
+					error("number of bootstrap replicates must be positive: "+value);
+				if(set.isSet("spill") || set.isSet("post") || set.isSet("minCount") || set.isSet("map")
+						|| set.isSet("window") || set.isSet("mod") || set.isSet("sampleTrees") || set.isSet("scoreTrees"))
+					error("-bootstrap cannot be used with -spill, -post, -minCount, -map, -window, -mod,\n"+
+							"  -sampleTrees or -scoreTrees");
+				if(NetworkSnapshot.isSnapshot(input0))
+					error("-bootstrap requires samples as input, not a DAG snapshot");
+				int pos = output.lastIndexOf('.');
+				if(pos == -1)
+					pos = output.length();
+				dagIf.setBootstrap(value, output.substring(0, pos).concat(DEF_BOOTSTRAP_EXTENSION));
+			}
+			if(set.isSet("gSweep")) {
+				String[] range = set.getOption("gSweep").getResultValue(0).split(":");
+				if(range.length != 3)
+					error("g sweep must be given as A:B:STEP");
+				// decimal arithmetic, so that the values are those typed in the file names
+				BigDecimal from = new BigDecimal(range[0]), to = new BigDecimal(range[1]), step = new BigDecimal(range[2]);
+				if(step.signum() <= 0 || from.compareTo(to) > 0)
+					error("g sweep needs A <= B and a positive STEP: "+set.getOption("gSweep").getResultValue(0));
+				if(set.isSet("spill") || set.isSet("post") || set.isSet("map") || set.isSet("mod"))
+					error("-gSweep cannot be used with -spill, -post, -map or -mod");
+				List<BigDecimal> values = new ArrayList<BigDecimal>();
+				for(BigDecimal value = from; value.compareTo(to) <= 0; value = value.add(step))
+					values.add(value);
+				double[] gValues = new double[values.size()];
+				String[] names = new String[values.size()];
+				for(int k = 0; k < gValues.length; k++) {
+					gValues[k] = values.get(k).doubleValue();
+					names[k] = values.get(k).toPlainString();
+				}
+				dagIf.setSweep(gValues, names);
+			}
+			if(set.isSet("pathMarginals")) {
+				if(set.isSet("spill") || set.isSet("map") || set.isSet("optgi") || set.isSet("mod")
+						|| set.isSet("bootstrap"))
+					error("-pathMarginals cannot be used with -spill, -map, -optgi, -mod or -bootstrap");
+				dagIf.setPathMarginals(true);
+			}
+			if(set.isSet("kbest")) {
+				int value = Integer.parseInt(set.getOption("kbest").getResultValue(0));
+				if(value < 1)
+					error("number of best alignments must be positive: "+value);
+				if(set.isSet("spill") || set.isSet("post") || set.isSet("map") || set.isSet("mod"))
+					error("-kbest cannot be used with -spill, -post, -map or -mod");
+				int pos = output.lastIndexOf('.');
+				if(pos == -1)
+					pos = output.length();
+				dagIf.setKBest(value, output.substring(0, pos).concat(DEF_KBEST_EXTENSION));
+			}
+			if(set.isSet("draw")) {
+				int value = Integer.parseInt(set.getOption("draw").getResultValue(0));
+				if(value < 1)
+					error("number of alignments to draw must be positive: "+value);
+				if(set.isSet("spill") || set.isSet("post") || set.isSet("map"))
+					error("-draw cannot be used with -spill, -post or -map");
+				long seed = 1;
+				if(set.isSet("seed"))
+					seed = Long.parseLong(set.getOption("seed").getResultValue(0));
+				boolean fasta = set.isSet("drawFasta");
+				int pos = output.lastIndexOf('.');
+				if(pos == -1)
+					pos = output.length();
+				dagIf.setDraws(value, seed, fasta, output.substring(0, pos).concat(DEF_DRAW_EXTENSION)
+						.concat(fasta ? DEF_FASTA_EXTENSION : ".log"));
+			} else if(set.isSet("drawFasta") || set.isSet("seed")) {
+				error("-drawFasta and -seed require -draw");
+			}
+			if(set.isSet("minCount")) {
+				String value = set.getOption("minCount").getResultValue(0);
+				if(value.equals("auto")) {
+					dagIf.setMinCount(DagInterface.AUTO_MIN_COUNT);
+				} else {
+					int minCount = Integer.parseInt(value);
+					if(minCount < 1)
+						error("minimum column count must be positive: "+minCount);
+					dagIf.setMinCount(minCount);
+				}
+				if(set.isSet("post") || set.isSet("map"))
+					error("-minCount cannot be used with -post or -map");
+			}
+			if(set.isSet("save")) {
+				dagIf.setSnapshotFile(set.getOption("save").getResultValue(0));
+			}
+			if(set.isSet("spill")) {
+				if(set.isSet("optgi") || set.isSet("outgi") || set.isSet("twoState") || set.isSet("mod")
+						|| set.isSet("sampleTrees") || set.isSet("scoreTrees") || set.isSet("post")
+						|| set.isSet("map") || set.isSet("threads") || set.isSet("every") || set.isSet("minCount"))
+					error("-spill cannot be used with -optgi, -outgi, -twoState, -mod, -sampleTrees, -scoreTrees,\n"+
+							"  -post, -map, -threads, -every or -minCount");
+				if(NetworkSnapshot.isSnapshot(input0))
+					error("-spill requires samples as input, not a DAG snapshot");
+				dagIf.setSpillDirectory(new File(set.getOption("spill").getResultValue(0)));
+			}
+			if(set.isSet("map")) {
+				if(!NetworkSnapshot.isSnapshot(input0))
+					error("-map requires a DAG snapshot as the first input file");
+				if(DagInterface.leadingSnapshots(data) > 1)
+					error("-map cannot be used with several DAG snapshots, merge them with -save first");
+				if(set.isSet("optgi") || set.isSet("outgi") || set.isSet("twoState") || set.isSet("mod")
+						|| set.isSet("sampleTrees") || set.isSet("scoreTrees") || set.isSet("save"))
+					error("-map cannot be used with -optgi, -outgi, -twoState, -mod, -sampleTrees, -scoreTrees or -save");
+				dagIf.setMapSnapshot(true);
+			}
 			if (set.isSet("post")) { 
 				// Print out log posterior for each sample
 				// based on empirical estimate from DAG
@@ -493,7 +725,6 @@ public class WeaveMain {
 			if(!scoreSamples) {
 				dagIf.computeMinRisk(data, output, scoreOutput); 
 			} else {
-				dagIf.setupNetwork(data, output, scoreOutput); 								
 				String postOutput = output;
 				if (computePosterior) {
 					int pos = output.lastIndexOf('.');
@@ -502,7 +733,7 @@ public class WeaveMain {
 					if (twoState) postOutput = postOutput.substring(0, pos).concat(".post.2");
 					else postOutput = postOutput.substring(0, pos).concat(".post");					
 				}				
-				dagIf.scoreSamples(data, postOutput, scoreOutput, computePosterior); 
+				dagIf.setupNetworkAndScore(data, output, scoreOutput, postOutput, computePosterior); 
 			}
 			if(dagIf.getAnnotator() != null)
 				lastDataProb = dagIf.getAnnotator().getDataProb();
@@ -0,0 +1,248 @@
+package wvalign.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash index of fixed-length <tt>int</tt> tuples.
+ *
+ * Every stored tuple gets a dense id (0, 1, 2, ... in order of insertion) and is
+ * copied into a single flat arena, so no per-tuple objects are created. The slot
+ * table only holds ids, collisions are resolved by linear probing and verified
+ * against the cached hash and the tuple data in the arena.
+ *
+ * Hash values can be supplied by the caller (e.g. when they are maintained
+ * incrementally), but the same hash function must be used for all operations on
+ * a given index.
+ */
+public class IntTupleIndex {
+
+	/** Minimum capacity of the index, must be a power of two */
+	private final static int MIN_CAPACITY = 16;
+
+	/** number of ints in a tuple */
+	private final int width;
+
+	/** tuple data, tuple with id <tt>i</tt> occupies <tt>[i*width, (i+1)*width)</tt> */
+	private int[] arena;
+	/** cached hash value of each tuple, indexed by id */
+	private int[] hashes;
+	/** slot table, holds <tt>id+1</tt> for occupied slots and 0 for empty ones */
+	private int[] slots;
+
+	/** number of tuples in the index */
+	private int size;
+
+	/**
+	 * Constructs an empty index for tuples of the given length.
+	 *
+	 * @param width  length of the tuples
+	 */
+	public IntTupleIndex(int width) {
+		this(width, MIN_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty index for tuples of the given length with room for at least
+	 * <tt>initialCapacity</tt> tuples before growing.
+	 *
+	 * @param width  length of the tuples
+	 * @param initialCapacity  expected number of tuples
+	 */
+	public IntTupleIndex(int width, int initialCapacity) {
+		this.width = width;
+		if(initialCapacity < MIN_CAPACITY)
+			initialCapacity = MIN_CAPACITY;
+		int cap = MIN_CAPACITY;
+		while(cap < initialCapacity)
+			cap <<= 1;
+		arena = new int[initialCapacity*width];
+		hashes = new int[initialCapacity];
+		slots = new int[cap << 1];
+	}
+
+	/**
+	 * @return length of the stored tuples
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * @return number of tuples in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Default hash function for tuples.
+	 *
+	 * @param key  the tuple
+	 * @return  hash value of the tuple
+	 */
+	public static int hash(int[] key) {
+		int h = 1;
+		for(int i = 0; i < key.length; i++)
+			h = 31*h + key[i];
+		return mix(h);
+	}
+
+	/**
+	 * Finalising step of MurmurHash3, spreads the bits of polynomial hashes so that
+	 * linear probing on the low bits works well.
+	 */
+	public static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Looks up a tuple using the default hash function.
+	 *
+	 * @param key  the tuple
+	 * @return  id of the tuple or -1 if it is not in the index
+	 */
+	public int find(int[] key) {
+		return find(key, hash(key));
+	}
+
+	/**
+	 * Looks up a tuple with a precomputed hash value.
+	 *
+	 * @param key  the tuple
+	 * @param hash  hash value of the tuple
+	 * @return  id of the tuple or -1 if it is not in the index
+	 */
+	public int find(int[] key, int hash) {
+		final int[] slots = this.slots;
+		final int mask = slots.length-1;
+		int pos = hash & mask, id;
+		while((id = slots[pos]) != 0) {
+			if(hashes[--id] == hash && matches(id, key))
+				return id;
+			pos = (pos+1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a tuple using the default hash function. The tuple must not be in the index.
+	 *
+	 * @param key  the tuple, copied into the index
+	 * @return  id assigned to the tuple
+	 */
+	public int insert(int[] key) {
+		return insert(key, hash(key));
+	}
+
+	/**
+	 * Adds a tuple with a precomputed hash value. The tuple must not be in the index.
+	 *
+	 * @param key  the tuple, copied into the index
+	 * @param hash  hash value of the tuple
+	 * @return  id assigned to the tuple
+	 */
+	public int insert(int[] key, int hash) {
+		if(size == hashes.length)
+			grow();
+		if(size<<1 >= slots.length)
+			rehash();
+		final int id = size++;
+		System.arraycopy(key, 0, arena, id*width, width);
+		hashes[id] = hash;
+		place(id);
+		return id;
+	}
+
+	/**
+	 * Returns an element of a stored tuple.
+	 *
+	 * @param id  id of the tuple
+	 * @param pos  position within the tuple
+	 * @return  the element
+	 */
+	public int get(int id, int pos) {
+		return arena[id*width+pos];
+	}
+
+	/**
+	 * Copies a stored tuple into an array.
+	 *
+	 * @param id  id of the tuple
+	 * @param dest  destination array of length at least <tt>width()</tt>
+	 */
+	public void copy(int id, int[] dest) {
+		System.arraycopy(arena, id*width, dest, 0, width);
+	}
+
+	/**
+	 * Returns a copy of a stored tuple.
+	 *
+	 * @param id  id of the tuple
+	 * @return  new array holding the tuple
+	 */
+	public int[] get(int id) {
+		int[] ret = new int[width];
+		copy(id, ret);
+		return ret;
+	}
+
+	/**
+	 * @param id  id of the tuple
+	 * @return  cached hash value of the tuple
+	 */
+	public int hashOf(int id) {
+		return hashes[id];
+	}
+
+	/**
+	 * Releases unused arena capacity. The index can still grow afterwards.
+	 */
+	public void trimToSize() {
+		int cap = size < MIN_CAPACITY ? MIN_CAPACITY : size;
+		if(cap < hashes.length) {
+			arena = Arrays.copyOf(arena, cap*width);
+			hashes = Arrays.copyOf(hashes, cap);
+		}
+	}
+
+	private boolean matches(int id, int[] key) {
+		final int[] arena = this.arena;
+		for(int i = 0, j = id*width; i < width; i++, j++)
+			if(arena[j] != key[i])
+				return false;
+		return true;
+	}
+
+	private void place(int id) {
+		final int[] slots = this.slots;
+		final int mask = slots.length-1;
+		int pos = hashes[id] & mask;
+		while(slots[pos] != 0)
+			pos = (pos+1) & mask;
+		slots[pos] = id+1;
+	}
+
+	/**
+	 * Grows the arena by 50%.
+	 */
+	private void grow() {
+		int cap = hashes.length + (hashes.length >> 1);
+		arena = Arrays.copyOf(arena, cap*width);
+		hashes = Arrays.copyOf(hashes, cap);
+	}
+
+	/**
+	 * Doubles the slot table, keeping it at most half full.
+	 */
+	private void rehash() {
+		slots = new int[slots.length << 1];
+		for(int id = 0; id < size; id++)
+			place(id);
+	}
+
+}
@@ -0,0 +1,171 @@
+package wvalign.utils;
+
+/**
+ * Open-addressing hash map from <tt>long</tt> keys to positive <tt>int</tt> counts.
+ *
+ * Keys and values are kept in two flat arrays, so no objects are created per
+ * entry. A value of 0 marks an empty slot, therefore only positive values can be
+ * stored, an entry whose value drops to 0 is removed. Collisions are resolved by
+ * linear probing, the table is kept at most half full.
+ */
+public class LongIntHashMap {
+
+	/** Minimum capacity of the table, must be a power of two */
+	private final static int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	/** value of each slot, 0 for empty slots */
+	private int[] values;
+
+	/** number of entries in the map */
+	private int size;
+
+	/**
+	 * Constructs an empty map.
+	 */
+	public LongIntHashMap() {
+		keys = new long[MIN_CAPACITY];
+		values = new int[MIN_CAPACITY];
+	}
+
+	/**
+	 * @return number of entries in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Hash function for keys, finalising step of MurmurHash3 (64 bit variant).
+	 */
+	public static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+
+	/**
+	 * @param key  the key
+	 * @return  value belonging to the key, 0 if the key is not in the map
+	 */
+	public int get(long key) {
+		final long[] keys = this.keys;
+		final int[] values = this.values;
+		final int mask = keys.length-1;
+		int pos = hash(key) & mask, value;
+		while((value = values[pos]) != 0) {
+			if(keys[pos] == key)
+				return value;
+			pos = (pos+1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param key  the key
+	 * @return  <code>true</code> if the key is in the map
+	 */
+	public boolean containsKey(long key) {
+		return get(key) != 0;
+	}
+
+	/**
+	 * Adds to the value belonging to a key, a missing key is inserted with the value
+	 * <tt>delta</tt>. The key is removed if its value becomes 0.
+	 *
+	 * @param key  the key
+	 * @param delta  the amount to add, must keep the value non-negative
+	 * @return  the new value
+	 */
+	public int add(long key, int delta) {
+		final long[] keys = this.keys;
+		final int[] values = this.values;
+		final int mask = keys.length-1;
+		int pos = hash(key) & mask;
+		while(values[pos] != 0) {
+			if(keys[pos] == key) {
+				int value = values[pos] += delta;
+				if(value == 0)
+					removeSlot(pos);
+				return value;
+			}
+			pos = (pos+1) & mask;
+		}
+		if(delta == 0)
+			return 0;
+		keys[pos] = key;
+		values[pos] = delta;
+		if(++size<<1 > keys.length)
+			rehash();
+		return delta;
+	}
+
+	/**
+	 * Sets the value belonging to a key.
+	 *
+	 * @param key  the key
+	 * @param value  the value, must be non-negative, 0 removes the key
+	 */
+	public void put(long key, int value) {
+		add(key, value-get(key));
+	}
+
+	/**
+	 * Returns all keys in the map, in no particular order.
+	 *
+	 * @return  new array holding the keys
+	 */
+	public long[] keys() {
+		long[] ret = new long[size];
+		for(int pos = 0, i = 0; pos < keys.length; pos++)
+			if(values[pos] != 0)
+				ret[i++] = keys[pos];
+		return ret;
+	}
+
+	/**
+	 * Empties a slot, moving back the entries that follow it in its probe sequence
+	 * so that all entries stay reachable from their home slots.
+	 */
+	private void removeSlot(int pos) {
+		final long[] keys = this.keys;
+		final int[] values = this.values;
+		final int mask = keys.length-1;
+		values[pos] = 0;
+		size--;
+		for(int next = (pos+1) & mask; values[next] != 0; next = (next+1) & mask) {
+			int home = hash(keys[next]) & mask;
+			// the entry may fill the empty slot if it does not lie between its home and itself
+			if(((next-home) & mask) >= ((next-pos) & mask)) {
+				keys[pos] = keys[next];
+				values[pos] = values[next];
+				values[next] = 0;
+				pos = next;
+			}
+		}
+	}
+
+	/**
+	 * Doubles the table.
+	 */
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length << 1];
+		values = new int[oldKeys.length << 1];
+		final int mask = keys.length-1;
+		for(int old = 0; old < oldKeys.length; old++) {
+			if(oldValues[old] == 0)
+				continue;
+			int pos = hash(oldKeys[old]) & mask;
+			while(values[pos] != 0)
+				pos = (pos+1) & mask;
+			keys[pos] = oldKeys[old];
+			values[pos] = oldValues[old];
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package wvalign.utils;
+
+/**
+ * Zobrist-style hash function for fixed-length <tt>int</tt> tuples that can be
+ * updated incrementally.
+ *
+ * The hash of a tuple is the XOR of independent, well mixed terms for each
+ * (position, value) pair, so changing one element only costs two term
+ * evaluations. Position seeds are derived from a fixed sequence, hash values are
+ * therefore reproducible between runs.
+ */
+public class ZobristHash {
+
+	/** per-position seeds */
+	private final int[] seeds;
+
+	/**
+	 * Constructs a hash function for tuples of the given length.
+	 *
+	 * @param width  length of the tuples
+	 */
+	public ZobristHash(int width) {
+		seeds = new int[width];
+		long x = 0;
+		for(int i = 0; i < width; i++) {
+			// SplitMix64 sequence
+			long z = (x += 0x9e3779b97f4a7c15L);
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			seeds[i] = (int)(z ^ (z >>> 31));
+		}
+	}
+
+	/**
+	 * @return length of the tuples this function hashes
+	 */
+	public int width() {
+		return seeds.length;
+	}
+
+	/**
+	 * Hash term of a single element.
+	 *
+	 * @param pos  position of the element
+	 * @param value  value of the element
+	 * @return  term contributed to the tuple hash
+	 */
+	public int term(int pos, int value) {
+		return IntTupleIndex.mix(seeds[pos] + value * 0x9e3779b9);
+	}
+
+	/**
+	 * Computes the hash of a whole tuple.
+	 *
+	 * @param key  the tuple
+	 * @return  hash value
+	 */
+	public int hash(int[] key) {
+		int h = 0;
+		for(int i = 0; i < seeds.length; i++)
+			h ^= term(i, key[i]);
+		return h;
+	}
+
+	/**
+	 * Updates a tuple hash after one of its elements has changed.
+	 *
+	 * @param hash  hash of the tuple before the change
+	 * @param pos  position of the changed element
+	 * @param oldValue  previous value of the element
+	 * @param newValue  new value of the element
+	 * @return  hash of the changed tuple
+	 */
+	public int update(int hash, int pos, int oldValue, int newValue) {
+		return hash ^ term(pos, oldValue) ^ term(pos, newValue);
+	}
+
+}
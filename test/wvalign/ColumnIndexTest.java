@@ -0,0 +1,60 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import wvalign.utils.IntTupleIndex;
+import wvalign.utils.ZobristHash;
+
+public class ColumnIndexTest {
+
+	@Test
+	public void testFindAndRestore() {
+		ZobristHash zobrist = new ZobristHash(3);
+		IntTupleIndex classes = new IntTupleIndex(3);
+		ColumnIndex index = new ColumnIndex(classes);
+		int[] rows = new int[3];
+
+		int[] first = { -1, -1, -1 };
+		int n = ColumnIndex.residueRows(first, rows);
+		assertEquals(3, n);
+		int firstId = index.insert(-1, rows, n, zobrist.hash(first));
+		assertArrayEquals(first, index.get(firstId));
+
+		int[] key = { 0, 2, 1 };
+		int cls = classes.insert(key, zobrist.hash(key));
+		int[] desc = { 1, 4, 3 };
+		n = ColumnIndex.residueRows(desc, rows);
+		assertEquals(2, n);
+		int hash = zobrist.hash(desc);
+		assertEquals(-1, index.find(cls, rows, n, hash));
+		int id = index.insert(cls, rows, n, hash);
+		assertEquals(id, index.find(cls, rows, n, hash));
+		assertEquals(-1, index.find(-1, rows, n, hash));
+
+		assertArrayEquals(desc, index.get(id));
+		assertEquals(4, index.get(id, 1));
+		assertEquals(3, index.get(id, 2));
+		assertEquals(cls, index.predClass(id));
+		assertEquals(hash, index.hashOf(id));
+		assertEquals(5, index.rowCount());
+	}
+
+	@Test
+	public void testGrow() {
+		ZobristHash zobrist = new ZobristHash(2);
+		IntTupleIndex classes = new IntTupleIndex(2);
+		int[] key = { 0, 0 };
+		int cls = classes.insert(key, zobrist.hash(key));
+		ColumnIndex index = new ColumnIndex(classes);
+		int[] rows = { 0 };
+		for(int i = 0; i < 1000; i++)
+			assertEquals(i, index.insert(cls, rows, i % 2, i));
+		index.trimToSize();
+		for(int i = 0; i < 1000; i++)
+			assertEquals(i, index.find(cls, rows, i % 2, i));
+		assertEquals(1000, index.size());
+	}
+
+}
@@ -0,0 +1,69 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ColumnNetworkTest {
+
+	@Test
+	public void testPruneLikeSnapshot() throws Exception {
+		String[] seqs = { "ACGTAC", "ACGTTG", "AGGTAC" };
+		Random random = new Random(11);
+		AlignmentDAG dag = new AlignmentDAG(0, false, true);
+		dag.columnNetwork.paths = new PathStore();
+		for(int s = 0; s < 40; s++) {
+			String[] align = new String[seqs.length];
+			for(int i = 0; i < seqs.length; i++) {
+				StringBuilder row = new StringBuilder(seqs[i]);
+				while(row.length() < 9)
+					row.insert(random.nextInt(row.length()+1), '-');
+				align[i] = "seq"+i+"\t"+row;
+			}
+			dag.addAlignment(align);
+		}
+		ColumnNetwork network = dag.columnNetwork;
+		int numCols = network.columns.size();
+		// samples losing their path are those using a column seen fewer than 3 times
+		int lost = 0;
+		PathStore.Reader reader = network.paths.reader();
+		for(int s = 0; s < 40; s++) {
+			int len = reader.next();
+			for(int k = 0; k < len; k++) {
+				int c = reader.path[k] < 0 ? ~reader.path[k] : reader.path[k];
+				if(network.columns.get(c).count < 3) {
+					lost++;
+					break;
+				}
+			}
+		}
+		assertTrue(network.prune(3) > 0);
+		assertEquals(lost/40.0, network.discardedMass, 1e-12);
+		assertTrue(lost > 0);
+		assertTrue(network.columns.size() < numCols);
+		assertTrue(network.pruned);
+		assertNull(network.paths);
+
+		// gap insensitive marginals agree with those of the network read back
+		File file = File.createTempFile("network", ".dag");
+		file.deleteOnExit();
+		NetworkSnapshot.write(dag, file.getPath());
+		AlignmentDAG other = new AlignmentDAG(0, false, true);
+		NetworkSnapshot.read(other, file.getPath());
+		assertEquals(network.columns.size(), other.columnNetwork.columns.size());
+		for(int c = 0; c < network.columns.size(); c++) {
+			assertEquals(other.columnNetwork.getColMarginal(c, false), network.getColMarginal(c, false), 0);
+			assertEquals(other.columnNetwork.getColMarginal(c, true), network.getColMarginal(c, true), 0);
+		}
+
+		try {
+			new Bootstrap(network, 1, 1);
+			fail("Bootstrap accepted a pruned network");
+		} catch (Error e) {
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FrozenNetworkTest {
+
+	@Test
+	public void testSegments() {
+		// four blocks of residues with random gaps, separated by columns holding a
+		// residue of every sequence in all alignments, the anchors
+		String[] block = { "ACGTA", "CGTAC", "GTACG", "TACGT" };
+		Random random = new Random(7);
+		int numSamples = 8;
+		AlignmentDAG dag = new AlignmentDAG(0.25, false, false);
+		for(int s = 0; s < numSamples; s++) {
+			StringBuilder[] rows = new StringBuilder[block.length];
+			for(int i = 0; i < block.length; i++)
+				rows[i] = new StringBuilder();
+			for(int b = 0; b < 4; b++) {
+				if(b > 0)
+					for(StringBuilder row : rows)
+						row.append('A');
+				for(int i = 0; i < block.length; i++) {
+					StringBuilder part = new StringBuilder(block[i].substring(0, 2+(i+b)%3));
+					while(part.length() < 6)
+						part.insert(random.nextInt(part.length()+1), '-');
+					rows[i].append(part);
+				}
+			}
+			String[] align = new String[block.length];
+			for(int i = 0; i < block.length; i++)
+				align[i] = "seq"+i+"\t"+rows[i];
+			dag.addAlignment(align);
+		}
+		FrozenNetwork net = dag.columnNetwork.freeze();
+		int[] segStart = net.segments(), anchors = net.anchors();
+		assertEquals(4, segStart.length-1);
+		assertEquals(0, segStart[0]);
+		assertEquals(net.numClasses(), segStart[4]);
+		assertEquals(net.last, anchors[3]);
+
+		int[] segment = new int[net.numClasses()];
+		for(int s = 0; s < 4; s++)
+			for(int k = segStart[s]; k < segStart[s+1]; k++)
+				segment[net.order[k]] = s;
+		for(int s = 0; s < 4; s++) {
+			int c = anchors[s], cl = net.order[segStart[s+1]-1];
+			assertEquals(numSamples, net.count[c]);
+			// the last class of a segment only leads to its anchor
+			assertEquals(cl, net.colPred[c]);
+			assertEquals(1, net.succStart[cl+1]-net.succStart[cl]);
+			if(s < 3)
+				assertEquals(segStart[s+1], indexOf(net.order, net.colSucc[c]));
+		}
+		// all other columns stay within the segment of their predecessor class
+		for(int c = 0; c < net.numColumns(); c++)
+			if(net.colPred[c] != -1 && net.colSucc[c] != -1 && net.count[c] < numSamples)
+				assertEquals(segment[net.colPred[c]], segment[net.colSucc[c]]);
+	}
+
+	private static int indexOf(int[] array, int value) {
+		for(int k = 0; k < array.length; k++)
+			if(array[k] == value)
+				return k;
+		return -1;
+	}
+
+}
@@ -0,0 +1,123 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KBestPathsTest {
+
+	@Test
+	public void testAgainstEnumeration() {
+		Random random = new Random(3);
+		int numClasses = 12;
+		// class k has 1-3 columns leading to later classes, the last class only
+		// has the last dummy column
+		List<Integer> succ = new ArrayList<Integer>(), pred = new ArrayList<Integer>();
+		succ.add(0);
+		pred.add(-1);
+		int[] succStart = new int[numClasses+1];
+		for(int k = 0; k < numClasses-1; k++) {
+			int degree = 1+random.nextInt(3);
+			for(int d = 0; d < degree; d++) {
+				succ.add(k+1+random.nextInt(Math.min(3, numClasses-1-k)));
+				pred.add(k);
+			}
+			succStart[k+1] = succStart[k]+degree;
+		}
+		succ.add(-1);
+		pred.add(numClasses-1);
+		succStart[numClasses] = succStart[numClasses-1]+1;
+		int numCols = succ.size(), last = numCols-1;
+		int[] colSucc = new int[numCols], colPred = new int[numCols], count = new int[numCols];
+		int[] succCols = new int[numCols-1], order = new int[numClasses];
+		double[] colScore = new double[numCols];
+		for(int c = 0; c < numCols; c++) {
+			colSucc[c] = succ.get(c);
+			colPred[c] = pred.get(c);
+			count[c] = 1;
+			colScore[c] = random.nextInt(5)*0.25;
+			if(c > 0)
+				succCols[c-1] = c;
+		}
+		for(int k = 0; k < numClasses; k++)
+			order[k] = k;
+		FrozenNetwork net = new FrozenNetwork(1, 0, last, count, colSucc, colPred, succStart,
+				succCols, new int[numClasses], order);
+
+		List<Double> all = new ArrayList<Double>();
+		enumerate(net, colScore, 0, 0, all);
+		Collections.sort(all, Collections.reverseOrder());
+
+		KBestPaths kBest = new KBestPaths(net, colScore, null);
+		List<int[]> paths = new ArrayList<int[]>();
+		for(int k = 0; k < all.size(); k++) {
+			assertEquals(all.get(k), kBest.score(k), 1e-9);
+			int[] path = kBest.path(k);
+			double score = colScore[last];
+			for(int c : path)
+				score += colScore[c];
+			assertEquals(kBest.score(k), score, 1e-9);
+			for(int[] other : paths)
+				assertFalse(Arrays.equals(other, path));
+			paths.add(path);
+		}
+		assertEquals(Double.NEGATIVE_INFINITY, kBest.score(all.size()), 0);
+	}
+
+	@Test
+	public void testLongChain() {
+		// class k has two columns leading to class k+1, the first one scoring 1, so
+		// paths differing in one column share the second best score
+		int numClasses = 20000, numCols = 2*numClasses;
+		int[] count = new int[numCols], colSucc = new int[numCols], colPred = new int[numCols];
+		int[] succStart = new int[numClasses+1], succCols = new int[numCols-1], order = new int[numClasses];
+		double[] colScore = new double[numCols];
+		colPred[0] = -1;
+		for(int c = 1; c < numCols-1; c++) {
+			colPred[c] = (c-1)/2;
+			colSucc[c] = colPred[c]+1;
+			colScore[c] = c%2;
+		}
+		colSucc[numCols-1] = -1;
+		colPred[numCols-1] = numClasses-1;
+		for(int k = 0; k < numClasses; k++) {
+			succStart[k+1] = Math.min(2*k+2, numCols-1);
+			order[k] = k;
+		}
+		for(int e = 0; e < numCols-1; e++)
+			succCols[e] = e+1;
+		Arrays.fill(count, 1);
+		FrozenNetwork net = new FrozenNetwork(1, 0, numCols-1, count, colSucc, colPred, succStart,
+				succCols, new int[numClasses], order);
+
+		KBestPaths kBest = new KBestPaths(net, colScore, null);
+		assertEquals(numClasses-1, kBest.score(0), 0);
+		for(int k = 1; k <= 3; k++) {
+			assertEquals(numClasses-2, kBest.score(k), 0);
+			int[] best = kBest.path(0), path = kBest.path(k);
+			assertEquals(numClasses-1, path.length);
+			int differ = 0;
+			for(int i = 0; i < path.length; i++)
+				if(path[i] != best[i])
+					differ++;
+			assertEquals(1, differ);
+		}
+	}
+
+	private static void enumerate(FrozenNetwork net, double[] colScore, int cl, double score, List<Double> all) {
+		for(int e = net.succStart[cl]; e < net.succStart[cl+1]; e++) {
+			int c = net.succCols[e];
+			if(net.colSucc[c] == -1)
+				all.add(score+colScore[c]);
+			else
+				enumerate(net, colScore, net.colSucc[c], score+colScore[c], all);
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import wvalign.utils.ZobristHash;
+
+public class MappedNetworkTest {
+
+	@Test
+	public void testChunkedDescriptors() throws Exception {
+		// random alignments of four sequences, gaps inserted at random positions
+		String[] seqs = { "ACGTACGTAC", "ACGTTGCA", "AGGTACCA", "CGTACGTAAC" };
+		Random random = new Random(5);
+		AlignmentDAG dag = new AlignmentDAG(0, false, false);
+		for(int s = 0; s < 30; s++) {
+			int len = 14;
+			String[] align = new String[seqs.length];
+			for(int i = 0; i < seqs.length; i++) {
+				StringBuilder row = new StringBuilder(seqs[i]);
+				while(row.length() < len)
+					row.insert(random.nextInt(row.length()+1), '-');
+				align[i] = "seq"+i+"\t"+row;
+			}
+			dag.addAlignment(align);
+		}
+		File file = File.createTempFile("network", ".dag");
+		file.deleteOnExit();
+		NetworkSnapshot.write(dag, file.getPath());
+
+		MappedNetwork whole = new MappedNetwork(file.getPath());
+		// three columns per mapped buffer
+		MappedNetwork chunked = new MappedNetwork(file.getPath(), 3*4*seqs.length);
+		assertEquals(dag.columnNetwork.freeze().numColumns(), chunked.numCols);
+		assertTrue(chunked.numCols > 3*3);
+		ZobristHash zobrist = new ZobristHash(seqs.length);
+		int[] expected = new int[seqs.length], desc = new int[seqs.length];
+		for(int c = 0; c < chunked.numCols; c++) {
+			whole.copyDescriptor(c, expected);
+			chunked.copyDescriptor(c, desc);
+			assertArrayEquals(expected, desc);
+			assertEquals(c, chunked.find(desc, zobrist.hash(desc)));
+		}
+		assertArrayEquals(whole.updateViterbi(0), chunked.updateViterbi(0));
+		// the mapped count runs backward, the in-memory one forward
+		assertEquals(dag.columnNetwork.logNPaths(), whole.logNPaths(), 1e-9);
+	}
+
+}
@@ -0,0 +1,99 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import wvalign.utils.Utils;
+
+public class NetworkDPTest {
+
+	/**
+	 * Network with three classes: columns 1 and 2 lead from class 0 to class 1,
+	 * column 3 from class 1 to class 2 and column 4 from class 0 to class 2.
+	 */
+	private static FrozenNetwork network() {
+		int[] count = { 3, 1, 1, 2, 1, 3 };
+		int[] colSucc = { 0, 1, 1, 2, 2, -1 };
+		int[] colPred = { -1, 0, 0, 1, 0, 2 };
+		int[] succStart = { 0, 3, 4, 5 };
+		int[] succCols = { 1, 2, 4, 3, 5 };
+		int[] succFreq = { 3, 2, 3 };
+		int[] order = { 0, 1, 2 };
+		return new FrozenNetwork(3, 0, 5, count, colSucc, colPred, succStart, succCols, succFreq, order);
+	}
+
+	private static final NetworkDP.Weights ONE = new NetworkDP.Weights() {
+		public double extend(double value, int col, int from, int to) {
+			return value;
+		}
+	};
+
+	@Test
+	public void testCountPaths() {
+		FrozenNetwork net = network();
+		double[] values = new NetworkDP(net, NetworkDP.LOG_SUM, 1, ONE).forward(null, null);
+		assertEquals(2, Math.exp(values[1]), 1e-12);
+		assertEquals(3, Math.exp(values[2]), 1e-12);
+
+		values = new NetworkDP(net, NetworkDP.LOG_SUM, 1, ONE).backward(null, null, null);
+		assertEquals(3, Math.exp(values[0]), 1e-12);
+	}
+
+	@Test
+	public void testViterbi() {
+		FrozenNetwork net = network();
+		double[] colScore = { 0, 2, 2, 1, 2.5, 0 };
+		int[] choice = new int[net.numClasses()];
+		NetworkDP dp = new NetworkDP(net, NetworkDP.MAX_PLUS, 1, NetworkDP.columnScores(colScore));
+		double[] values = dp.backward(null, choice, null);
+		assertEquals(3, values[0], 0);
+		// ties are kept by the first column
+		assertEquals(1, choice[0]);
+		assertArrayEquals(new int[] { 1, 3 }, net.path(choice));
+	}
+
+	@Test
+	public void testStatesAndPool() {
+		FrozenNetwork net = network();
+		// two states, switching state costs a factor of 2
+		NetworkDP.Weights weights = new NetworkDP.Weights() {
+			public double extend(double value, int col, int from, int to) {
+				return value + (from == to ? 0 : Math.log(2));
+			}
+		};
+		double[] initial = { 0, Utils.log0 };
+		double[] seq = new NetworkDP(net, NetworkDP.LOG_SUM, 2, weights).forward(initial, null);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		double[] par = new NetworkDP(net, NetworkDP.LOG_SUM, 2, weights).forward(initial, pool);
+		pool.shutdown();
+		assertArrayEquals(seq, par, 0);
+		// each column adds a factor of 1+2, two paths into class 2 have three
+		// columns including the first dummy column, one path has two
+		assertEquals(2*27+9, Math.exp(seq[4])+Math.exp(seq[5]), 1e-9);
+	}
+
+	@Test
+	public void testColumnStates() {
+		FrozenNetwork net = network();
+		// column 3 cannot follow column 2
+		NetworkDP.Weights pairs = new NetworkDP.Weights() {
+			public double extend(double value, int col, int from, int to) {
+				return from == 2 && col == 3 ? Utils.log0 : value;
+			}
+		};
+		double[] values = new NetworkDP(net, NetworkDP.LOG_SUM, NetworkDP.COLUMN_STATES, pairs)
+				.forward(null, null);
+		assertEquals(1, Math.exp(values[3]), 1e-12);
+		assertEquals(1, Math.exp(values[4]), 1e-12);
+		assertEquals(2, Math.exp(values[5]), 1e-12);
+
+		values = new NetworkDP(net, NetworkDP.LOG_SUM, NetworkDP.COLUMN_STATES, pairs)
+				.backward(null, null, null);
+		assertEquals(0, Math.exp(values[2]), 1e-12);
+		assertEquals(2, Math.exp(values[0]), 1e-12);
+	}
+
+}
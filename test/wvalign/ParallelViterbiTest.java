@@ -0,0 +1,56 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelViterbiTest {
+
+	@Test
+	public void testIdenticalToSequential() {
+		// random alignments of eight random sequences, gaps inserted at random positions
+		Random random = new Random(7);
+		String[] seqs = new String[8];
+		for(int i = 0; i < seqs.length; i++) {
+			StringBuilder seq = new StringBuilder();
+			for(int j = 0; j < 15-i%3; j++)
+				seq.append("ACGT".charAt(random.nextInt(4)));
+			seqs[i] = seq.toString();
+		}
+		AlignmentDAG dag = new AlignmentDAG(0.3, false, false);
+		for(int s = 0; s < 1500; s++) {
+			int len = 23+random.nextInt(4);
+			String[] align = new String[seqs.length];
+			for(int i = 0; i < seqs.length; i++) {
+				StringBuilder row = new StringBuilder(seqs[i]);
+				while(row.length() < len)
+					row.insert(random.nextInt(row.length()+1), '-');
+				align[i] = "seq"+i+"\t"+row;
+			}
+			dag.addAlignment(align);
+		}
+		ColumnNetwork network = dag.columnNetwork;
+		FrozenNetwork net = network.freeze();
+		int[] levelStart = net.levels();
+		int widest = 0;
+		for(int h = 0; h < levelStart.length-1; h++)
+			widest = Math.max(widest, levelStart[h+1]-levelStart[h]);
+		// some levels are split into chunks relaxed on different threads
+		assertTrue(widest > 2*NetworkDP.GRAIN);
+
+		// scores are not exact sums, the parallel pass must add them in the same order
+		double[] colScore = network.columnScores(net);
+		int[] seqChoice = new int[net.numClasses()], parChoice = new int[net.numClasses()];
+		double[] seq = new NetworkDP(net, NetworkDP.MAX_PLUS, 1, NetworkDP.columnScores(colScore))
+				.backward(null, seqChoice, null);
+		ParallelViterbi viterbi = new ParallelViterbi(3);
+		double[] par = viterbi.run(new NetworkDP(net, NetworkDP.MAX_PLUS, 1, NetworkDP.columnScores(colScore)),
+				parChoice);
+		viterbi.pool.shutdown();
+		assertArrayEquals(seq, par, 0);
+		assertArrayEquals(seqChoice, parChoice);
+	}
+
+}
@@ -0,0 +1,37 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class PathSamplerTest {
+
+	@Test
+	public void testColumnFrequencies() {
+		// class 0 has columns 1-4 leading to class 1, which only has the last dummy column
+		int[] count = { 8, 1, 2, 5, 0, 8 };
+		int[] colSucc = { 0, 1, 1, 1, 1, -1 };
+		int[] colPred = { -1, 0, 0, 0, 0, 1 };
+		int[] succStart = { 0, 4, 5 };
+		int[] succCols = { 1, 2, 3, 4, 5 };
+		int[] succFreq = { 8, 8 };
+		int[] order = { 0, 1 };
+		FrozenNetwork net = new FrozenNetwork(8, 0, 5, count, colSucc, colPred, succStart, succCols, succFreq, order);
+		PathSampler sampler = new PathSampler(net);
+
+		SplittableRandom random = new SplittableRandom(1);
+		int draws = 80000;
+		int[] hits = new int[count.length];
+		for(int i = 0; i < draws; i++) {
+			int[] path = sampler.draw(random);
+			assertEquals(1, path.length);
+			hits[path[0]]++;
+		}
+		for(int c = 1; c <= 4; c++)
+			assertEquals((double)count[c]/8, (double)hits[c]/draws, 0.01);
+		assertEquals(0, hits[4]);
+	}
+
+}
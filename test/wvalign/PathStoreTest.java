@@ -0,0 +1,50 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PathStoreTest {
+
+	@Test
+	public void testRoundTrip() {
+		PathStore store = new PathStore();
+		int[] a = { 0, 5, ~6, 3, 1 << 30, ~0 };
+		int[] b = { };
+		int[] c = { 7, ~(Integer.MAX_VALUE-1), 2 };
+		store.add(a, a.length);
+		store.addRepeat();
+		store.add(b, 0);
+		store.add(c, c.length);
+		assertEquals(4, store.size());
+
+		PathStore.Reader reader = store.reader();
+		assertArrayEquals(a, Arrays.copyOf(reader.path, reader.next()));
+		assertFalse(reader.repeated);
+		assertArrayEquals(a, Arrays.copyOf(reader.path, reader.next()));
+		assertTrue(reader.repeated);
+		assertEquals(0, reader.next());
+		assertArrayEquals(c, Arrays.copyOf(reader.path, reader.next()));
+	}
+
+	@Test
+	public void testAddAll() {
+		PathStore shard = new PathStore();
+		shard.add(new int[] { 0, ~2, 1 }, 3);
+		shard.addRepeat();
+		PathStore store = new PathStore();
+		store.add(new int[] { 4 }, 1);
+		store.addAll(shard, new int[] { 10, 11, 12 });
+		assertEquals(3, store.size());
+
+		PathStore.Reader reader = store.reader();
+		reader.next();
+		int[] expected = { 10, ~12, 11 };
+		assertArrayEquals(expected, Arrays.copyOf(reader.path, reader.next()));
+		assertEquals(3, reader.next());
+		assertTrue(reader.repeated);
+	}
+
+}
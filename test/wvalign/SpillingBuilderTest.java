@@ -0,0 +1,60 @@
+package wvalign;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpillingBuilderTest {
+
+	@Test
+	public void testSpillEverySample() throws Exception {
+		// random alignments of four sequences, gaps inserted at random positions
+		String[] seqs = { "ACGTACGTAC", "ACGTTGCA", "AGGTACCA", "CGTACGTAAC" };
+		Random random = new Random(7);
+		AlignmentDAG dag = new AlignmentDAG(0, false, false);
+		AlignmentDAG spilled = new AlignmentDAG(0, false, false);
+		File dir = File.createTempFile("spill", "");
+		dir.delete();
+		// a budget of one byte spills the table after each sample
+		spilled.spillingBuilder = new SpillingBuilder(dir, 1);
+		for(int s = 0; s < 40; s++) {
+			int len = 12+random.nextInt(4);
+			String[] align = new String[seqs.length];
+			for(int i = 0; i < seqs.length; i++) {
+				StringBuilder row = new StringBuilder(seqs[i]);
+				while(row.length() < len)
+					row.insert(random.nextInt(row.length()+1), '-');
+				align[i] = "seq"+i+"\t"+row;
+			}
+			dag.addAlignment(align);
+			spilled.addAlignment(align);
+		}
+		File expected = File.createTempFile("network", ".dag"), file = File.createTempFile("spilled", ".dag");
+		expected.deleteOnExit();
+		file.deleteOnExit();
+		NetworkSnapshot.write(dag, expected.getPath());
+		spilled.spillingBuilder.writeSnapshot(spilled, file.getPath());
+		assertEquals(40, spilled.spillingBuilder.spills-1);
+		// the run files and the files of the final merge are removed
+		assertEquals(0, dir.list().length);
+		dir.delete();
+
+		assertArrayEquals(read(expected), read(file));
+	}
+
+	private static byte[] read(File file) throws Exception {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = new byte[(int)in.length()];
+			in.readFully(data);
+			return data;
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package wvalign.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class IntTupleIndexTest {
+
+	@Test
+	public void testInsertFind() {
+		IntTupleIndex index = new IntTupleIndex(3);
+		int[] first = {1, 2, 3};
+		int[] second = {3, 2, 1};
+
+		assertEquals(0, index.size());
+		assertEquals(-1, index.find(first));
+
+		assertEquals(0, index.insert(first));
+		assertEquals(1, index.insert(second));
+
+		assertEquals(2, index.size());
+		assertEquals(0, index.find(new int[] {1, 2, 3}));
+		assertEquals(1, index.find(new int[] {3, 2, 1}));
+		assertEquals(-1, index.find(new int[] {1, 2, 4}));
+	}
+
+	@Test
+	public void testKeyIsCopied() {
+		IntTupleIndex index = new IntTupleIndex(2);
+		int[] key = {5, 6};
+		int id = index.insert(key);
+		key[0] = 7;
+
+		assertEquals(-1, index.find(key));
+		assertEquals(id, index.find(new int[] {5, 6}));
+		assertArrayEquals(new int[] {5, 6}, index.get(id));
+		assertEquals(6, index.get(id, 1));
+	}
+
+	@Test
+	public void testGrow() {
+		IntTupleIndex index = new IntTupleIndex(2);
+		for(int i = 0; i < 10000; i++)
+			assertEquals(i, index.insert(new int[] {i, -i}));
+		index.trimToSize();
+		for(int i = 0; i < 10000; i++)
+			assertEquals(i, index.find(new int[] {i, -i}));
+		assertEquals(-1, index.find(new int[] {1, 1}));
+		assertEquals(10000, index.insert(new int[] {1, 1}));
+	}
+
+	@Test
+	public void testCollidingHashes() {
+		// all tuples share the same hash, equality must be verified on the data
+		IntTupleIndex index = new IntTupleIndex(1);
+		for(int i = 0; i < 100; i++)
+			index.insert(new int[] {i}, 42);
+		for(int i = 0; i < 100; i++)
+			assertEquals(i, index.find(new int[] {i}, 42));
+		assertEquals(-1, index.find(new int[] {100}, 42));
+	}
+
+}
@@ -0,0 +1,69 @@
+package wvalign.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LongIntHashMapTest {
+
+	@Test
+	public void testAddGet() {
+		LongIntHashMap map = new LongIntHashMap();
+		assertEquals(0, map.get(5));
+		assertFalse(map.containsKey(5));
+
+		assertEquals(1, map.add(5, 1));
+		assertEquals(3, map.add(5, 2));
+		assertEquals(1, map.add(-5L << 32 | 7, 1));
+
+		assertEquals(2, map.size());
+		assertEquals(3, map.get(5));
+		assertEquals(1, map.get(-5L << 32 | 7));
+		assertTrue(map.containsKey(5));
+		assertFalse(map.containsKey(7));
+	}
+
+	@Test
+	public void testPut() {
+		LongIntHashMap map = new LongIntHashMap();
+		map.put(0, 4);
+		map.put(0, 2);
+		assertEquals(2, map.get(0));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testRemove() {
+		LongIntHashMap map = new LongIntHashMap();
+		for(int i = 0; i < 1000; i++)
+			map.add(i, 2);
+		for(int i = 0; i < 1000; i += 2)
+			assertEquals(0, map.add(i, -2));
+		map.put(1, 0);
+		assertEquals(499, map.size());
+		assertFalse(map.containsKey(0));
+		assertFalse(map.containsKey(1));
+		for(int i = 3; i < 1000; i += 2)
+			assertEquals(2, map.get(i));
+		assertEquals(499, map.keys().length);
+	}
+
+	@Test
+	public void testGrow() {
+		LongIntHashMap map = new LongIntHashMap();
+		for(int i = 0; i < 10000; i++)
+			map.add((long)i << 32 | (i*7), i+1);
+		assertEquals(10000, map.size());
+		for(int i = 0; i < 10000; i++)
+			assertEquals(i+1, map.get((long)i << 32 | (i*7)));
+
+		long[] keys = map.keys();
+		Arrays.sort(keys);
+		assertEquals(10000, keys.length);
+		assertEquals(0L, keys[0]);
+		assertEquals(9999L << 32 | (9999*7), keys[9999]);
+	}
+
+}
@@ -0,0 +1,33 @@
+package wvalign.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ZobristHashTest {
+
+	@Test
+	public void testUpdateMatchesFullHash() {
+		ZobristHash zobrist = new ZobristHash(20);
+		Random rnd = new Random(3);
+		int[] key = new int[20];
+		int hash = zobrist.hash(key);
+		for(int k = 0; k < 1000; k++) {
+			int pos = rnd.nextInt(key.length);
+			int value = rnd.nextInt(100)-1;
+			hash = zobrist.update(hash, pos, key[pos], value);
+			key[pos] = value;
+			assertEquals(zobrist.hash(key), hash);
+		}
+	}
+
+	@Test
+	public void testReproducible() {
+		int[] key = {-1, 0, 1, 2, 5};
+		assertEquals(new ZobristHash(5).hash(key), new ZobristHash(5).hash(key));
+		assertFalse(new ZobristHash(5).hash(key) == new ZobristHash(5).hash(new int[] {0, -1, 1, 2, 5}));
+	}
+
+}